@@ -6,22 +6,36 @@ import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.PowerManager;
 import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.Display;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.WindowManager;
 import android.widget.LinearLayout;
+import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-
+import com.google.android.material.snackbar.Snackbar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import de.othaw.nicolasproske.mauc.engine.CollisionSolver;
+import de.othaw.nicolasproske.mauc.engine.JitterBuffer;
+import de.othaw.nicolasproske.mauc.manager.AccelerometerManager;
 import de.othaw.nicolasproske.mauc.manager.AudioManager;
 import de.othaw.nicolasproske.mauc.manager.MQTTManager;
 import de.othaw.nicolasproske.mauc.manager.ParticleManager;
-import de.othaw.nicolasproske.mauc.object.Particle;
+import de.othaw.nicolasproske.mauc.protocol.TiltCodec;
+import de.othaw.nicolasproske.mauc.protocol.TiltReceiver;
 import de.othaw.nicolasproske.mauc.view.SimulationView;
 
 /**
@@ -33,6 +47,36 @@ import de.othaw.nicolasproske.mauc.view.SimulationView;
  */
 public final class MainActivity extends AppCompatActivity {
 
+    /**
+     * Where the tilt of the board comes from, the names are the values of the preference.
+     */
+    public enum TiltSource {
+        /**
+         * The remote controller via MQTT.
+         */
+        REMOTE("Remote"),
+        /**
+         * The accelerometer of this device.
+         */
+        LOCAL("Lokal");
+
+        private final String preferenceValue;
+
+        TiltSource(final String preferenceValue) {
+            this.preferenceValue = preferenceValue;
+        }
+
+        /**
+         * Gets the source of a preference value.
+         *
+         * @param preferenceValue the value of the sensor_source preference
+         * @return the source, remote for unknown values
+         */
+        public static TiltSource fromPreference(final String preferenceValue) {
+            return LOCAL.preferenceValue.equals(preferenceValue) ? LOCAL : REMOTE;
+        }
+    }
+
     private SharedPreferences sharedPreferences;
 
     private SensorManager sensorManager;
@@ -40,16 +84,21 @@ public final class MainActivity extends AppCompatActivity {
     private PowerManager powerManager;
 
     private AudioManager audioManager;
+    private AccelerometerManager accelerometerManager;
     private MQTTManager mqttManager;
     private ParticleManager particleManager;
 
     private SimulationView simulationView;
-    private Particle particle;
 
     private Display display;
     private PowerManager.WakeLock wakeLock;
 
-    private float mouseXAcceleration, mouseYAcceleration;
+    // Only one source writes the tilt, switching is guarded by the lock
+    private final Object tiltLock = new Object();
+    private volatile TiltSource tiltSource = TiltSource.REMOTE;
+
+    // Last published tilt, guarded by the tilt lock
+    private float lastTiltX, lastTiltY;
 
 
     @Override
@@ -68,9 +117,8 @@ public final class MainActivity extends AppCompatActivity {
          * VIEWS
          */
         this.simulationView = new SimulationView(this, this);
-        this.particle = new Particle(this, this);
 
-        simulationView.setBackgroundResource(R.drawable.wood);
+        simulationView.setBoardResource(R.drawable.wood);
 
         /*
          * MANAGER
@@ -81,6 +129,16 @@ public final class MainActivity extends AppCompatActivity {
         this.audioManager = new AudioManager(this);
         this.mqttManager = new MQTTManager(this);
         this.particleManager = new ParticleManager(this);
+        this.accelerometerManager = new AccelerometerManager(this);
+
+        // Tell the user about the connection, but not about every retry
+        mqttManager.setConnectionListener((state, broker, attempts) -> {
+            if (state == MQTTManager.State.CONNECTED) {
+                Snackbar.make(simulationView, "Connected to broker: " + broker, Snackbar.LENGTH_LONG).show();
+            } else if (state == MQTTManager.State.BACKING_OFF && attempts == 1) {
+                Snackbar.make(simulationView, "Could not connect to broker " + broker + ", retrying", Snackbar.LENGTH_LONG).show();
+            }
+        });
 
         display = windowManager.getDefaultDisplay();
         wakeLock = powerManager.newWakeLock(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON, getClass().getName());
@@ -120,6 +178,8 @@ public final class MainActivity extends AppCompatActivity {
         if (id == R.id.action_settings) {
             final Intent intent = new Intent(this, SettingsActivity.class);
             startActivity(intent);
+        } else if (id == R.id.action_dump_stats) {
+            dumpFrameStats();
         }
 
         return super.onOptionsItemSelected(item);
@@ -136,11 +196,40 @@ public final class MainActivity extends AppCompatActivity {
             audioManager.mute();
         }
 
-        // Connect to MQTT broker
+        // Enable/Disable respawn of scored balls
+        particleManager.setRespawn(sharedPreferences.getBoolean("respawn", false));
+
+        // Load the holes and obstacles of the selected level
+        particleManager.loadLevel(sharedPreferences.getString("level", "none"));
+
+        // Show the frame stats on top of the board
+        simulationView.setOverlayEnabled(sharedPreferences.getBoolean("debug_overlay", false));
+
+        // One view per ball or all balls drawn by the simulation view
+        simulationView.setRenderMode(SimulationView.RenderMode.valueOf(sharedPreferences.getString("render_mode", "VIEWS")));
+
+        // Resolve the collisions on one core or on all cores
+        particleManager.setSolverMode(CollisionSolver.Mode.valueOf(sharedPreferences.getString("solver_mode", "SERIAL")));
+
+        // Delay of the remote input behind the sender, adapted to the jitter by default
+        final long inputDelay = Long.parseLong(sharedPreferences.getString("input_delay", "-1"));
+        particleManager.getJitterBuffer().setTargetDelay(inputDelay < 0L ? JitterBuffer.AUTO_DELAY : inputDelay * 1_000_000L);
+
+        // Stream the positions of the balls to the telemetry topic, 0 disables it
+        mqttManager.setTelemetryRate(Integer.parseInt(sharedPreferences.getString("telemetry_rate", "0")));
+
+        // Echo the latency of the input messages to the diagnostics topic
+        mqttManager.setDiagnosticsEnabled(sharedPreferences.getBoolean("latency_diagnostics", false));
+
+        // Tilt the board remotely via MQTT or with the accelerometer of this device.
+        // The preference is only changed in the settings, so it is applied when the user returns from them
+        setTiltSource(TiltSource.fromPreference(sharedPreferences.getString("sensor_source", "Remote")));
+
+        // Connect to MQTT broker in the background, the sub-topic is subscribed after every connect
         mqttManager.connect();
 
-        // Subscribe to connected MQTT broker
-        mqttManager.subscribe();
+        // Start the simulation thread
+        simulationView.startSimulation();
 
         /*
          * when the activity is resumed, we acquire a wake-lock so that the
@@ -157,6 +246,9 @@ public final class MainActivity extends AppCompatActivity {
         // Disconnect from broker
         mqttManager.disconnect();
 
+        // Release the accelerometer
+        accelerometerManager.stop();
+
         /*
          * When the activity is paused, we make sure to stop the simulation,
          * release our sensor resources and wake locks
@@ -169,6 +261,22 @@ public final class MainActivity extends AppCompatActivity {
         wakeLock.release();
     }
 
+    /**
+     * Write the frame stats to a file in the external files directory of the app.
+     */
+    private void dumpFrameStats() {
+        final File file = new File(getExternalFilesDir(null), "frame-stats-" + System.currentTimeMillis() + ".csv");
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            particleManager.getFrameStats().write(writer);
+            particleManager.getLatencyTracer().write(writer);
+            Toast.makeText(this, "Statistik gespeichert: " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } catch (final IOException e) {
+            Log.e(getClass().getSimpleName(), "Could not write frame stats to " + file, e);
+            Toast.makeText(this, "Statistik konnte nicht gespeichert werden", Toast.LENGTH_LONG).show();
+        }
+    }
+
     /**
      * Gets mqtt manager.
      *
@@ -206,39 +314,113 @@ public final class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Gets mouse x acceleration.
+     * Decode a tilt message of a source and publish it to the simulation. It is ignored unless
+     * the source is the selected one. May be called from the thread of any source.
      *
-     * @return the mouse x acceleration
+     * @param source      the source of the tilt
+     * @param payload     the binary or text message
+     * @param receiveTime the monotonic arrival time in nanoseconds
+     * @return false if the message was invalid
      */
-    public float getMouseXAcceleration() {
-        return mouseXAcceleration;
+    public boolean receiveTilt(final TiltSource source, final byte[] payload, final long receiveTime) {
+        if (source != tiltSource) {
+            return true;
+        }
+
+        synchronized (tiltLock) {
+            if (source != tiltSource) {
+                return true;
+            }
+
+            final TiltReceiver receiver = particleManager.getTiltReceiver();
+            if (!receiver.receive(payload, receiveTime)) {
+                return false;
+            }
+            onTiltPlaced(receiver, receiveTime);
+            return true;
+        }
     }
 
     /**
-     * Sets mouse x acceleration.
+     * Publish the tilt of a source to the simulation. It is ignored unless the source is
+     * the selected one. May be called from the thread of any source.
      *
-     * @param mouseXAcceleration the mouse x acceleration
+     * @param source      the source of the tilt
+     * @param sequence    the sequence number of the sender, or {@link TiltCodec#NO_SEQUENCE}
+     * @param timestamp   the timestamp of the sender in microseconds since the epoch, or {@link JitterBuffer#NO_TIMESTAMP}
+     * @param receiveTime the monotonic arrival time in nanoseconds
+     * @param x           the x acceleration
+     * @param y           the y acceleration
+     */
+    public void publishTilt(final TiltSource source, final int sequence, final long timestamp, final long receiveTime,
+                            final float x, final float y) {
+        if (source != tiltSource) {
+            return;
+        }
+
+        // Only uncontended while switching, the jitter buffer must not be written by two threads at once
+        synchronized (tiltLock) {
+            if (source != tiltSource) {
+                return;
+            }
+
+            final TiltReceiver receiver = particleManager.getTiltReceiver();
+            receiver.add(sequence, timestamp, receiveTime, x, y);
+            onTiltPlaced(receiver, receiveTime);
+        }
+    }
+
+    /**
+     * Count and trace the sample just placed by the receiver. The caller must hold the tilt lock.
      */
-    public void setMouseXAcceleration(float mouseXAcceleration) {
-        this.mouseXAcceleration = mouseXAcceleration;
+    private void onTiltPlaced(final TiltReceiver receiver, final long receiveTime) {
+        particleManager.getFrameStats().recordInputMessage();
+
+        // Stale samples never reach the simulation, so there is nothing to trace
+        if (receiver.getInputTime() != JitterBuffer.NO_TIMESTAMP) {
+            particleManager.getLatencyTracer().receive(receiver.getSequence(), receiver.getTimestamp(),
+                    receiveTime, receiver.getInputTime());
+        }
+
+        if (receiver.getX() != lastTiltX || receiver.getY() != lastTiltY) {
+            lastTiltX = receiver.getX();
+            lastTiltY = receiver.getY();
+            // Request frames again if the view suspended them
+            simulationView.wakeUp();
+        }
     }
 
     /**
-     * Gets mouse y acceleration.
+     * Select where the tilt comes from, takes effect immediately.
+     * Must be called on the main thread.
      *
-     * @return the mouse y acceleration
+     * @param source the tilt source
      */
-    public float getMouseYAcceleration() {
-        return mouseYAcceleration;
+    public void setTiltSource(final TiltSource source) {
+        synchronized (tiltLock) {
+            if (source != tiltSource) {
+                tiltSource = source;
+                // The clock of the new source has nothing to do with the old one
+                particleManager.getJitterBuffer().reset();
+            }
+        }
+
+        if (source == TiltSource.LOCAL) {
+            if (!accelerometerManager.start()) {
+                Toast.makeText(this, "Kein Beschleunigungssensor vorhanden", Toast.LENGTH_LONG).show();
+            }
+        } else {
+            accelerometerManager.stop();
+        }
     }
 
     /**
-     * Sets mouse y acceleration.
+     * Gets tilt source.
      *
-     * @param mouseYAcceleration the mouse y acceleration
+     * @return the tilt source
      */
-    public void setMouseYAcceleration(float mouseYAcceleration) {
-        this.mouseYAcceleration = mouseYAcceleration;
+    public TiltSource getTiltSource() {
+        return tiltSource;
     }
 
     /**
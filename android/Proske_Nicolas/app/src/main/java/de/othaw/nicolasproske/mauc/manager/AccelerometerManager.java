@@ -0,0 +1,167 @@
+package de.othaw.nicolasproske.mauc.manager;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Display;
+import android.view.Surface;
+
+import de.othaw.nicolasproske.mauc.MainActivity;
+import de.othaw.nicolasproske.mauc.protocol.TiltCodec;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Local input source which tilts the board with the accelerometer of the device. The sensor
+ * runs at game rate and may hold the samples in its hardware FIFO for a short time, so the
+ * CPU wakes up once per batch instead of once per sample. Samples keep their sensor
+ * timestamps and take the same path as the remote tilt, so the jitter buffer spreads each
+ * batch out again.
+ * <p>
+ * The values are remapped to the rotation of the display and low-pass filtered against
+ * sensor noise. Events are received on an own thread.
+ *
+ * @author Nicolas Proske
+ * @author googlearchive (The Android Open Source Project)
+ * @version 20.06.2020
+ */
+public final class AccelerometerManager implements SensorEventListener {
+
+    // Longest time the sensor may batch samples before it reports them
+    private final static int MAX_REPORT_LATENCY_US = 40_000;
+
+    // Time constant of the low-pass filter
+    private final static float FILTER_TIME_CONSTANT_NANOS = 30_000_000f;
+
+    private final MainActivity mainActivity;
+    private final SensorManager sensorManager;
+    private final Sensor accelerometer;
+    private final Display display;
+    private final String tag;
+
+    private HandlerThread sensorThread;
+
+    // Only touched on the sensor thread
+    private float filteredX, filteredY;
+    private long lastEventTime;
+
+    // Microseconds since the epoch at the start of the sensor clock
+    private long epochOffsetMicros;
+
+    /**
+     * Instantiates a new Accelerometer manager.
+     *
+     * @param mainActivity the main activity
+     */
+    public AccelerometerManager(final MainActivity mainActivity) {
+        this.mainActivity = mainActivity;
+        this.sensorManager = mainActivity.getSensorManager();
+        this.accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        this.display = mainActivity.getWindowManager().getDefaultDisplay();
+        this.tag = mainActivity.getClass().getSimpleName();
+    }
+
+    /**
+     * Start reading the accelerometer, does nothing if it is already running.
+     *
+     * @return true if the device has an accelerometer
+     */
+    public boolean start() {
+        if (accelerometer == null) {
+            Log.w(tag, "No accelerometer available");
+            return false;
+        }
+        if (sensorThread != null) {
+            return true;
+        }
+
+        // The sensor timestamps count from boot like the elapsed realtime
+        epochOffsetMicros = System.currentTimeMillis() * 1000L - SystemClock.elapsedRealtimeNanos() / 1000L;
+        lastEventTime = 0L;
+
+        sensorThread = new HandlerThread("Accelerometer");
+        sensorThread.start();
+        sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME,
+                MAX_REPORT_LATENCY_US, new Handler(sensorThread.getLooper()));
+        return true;
+    }
+
+    /**
+     * Stop reading the accelerometer.
+     */
+    public void stop() {
+        if (sensorThread == null) {
+            return;
+        }
+
+        sensorManager.unregisterListener(this);
+        sensorThread.quitSafely();
+        sensorThread = null;
+    }
+
+    /**
+     * Checks if the accelerometer is read.
+     *
+     * @return true if running
+     */
+    public boolean isRunning() {
+        return sensorThread != null;
+    }
+
+    @Override
+    public void onSensorChanged(final SensorEvent event) {
+        if (event.sensor.getType() != Sensor.TYPE_ACCELEROMETER) {
+            return;
+        }
+
+        /*
+         * record the accelerometer data, compensate for the rotation of the
+         * display, the sensor axes don't rotate with it
+         */
+        final float x;
+        final float y;
+        switch (display.getRotation()) {
+            case Surface.ROTATION_90:
+                x = -event.values[1];
+                y = event.values[0];
+                break;
+            case Surface.ROTATION_180:
+                x = -event.values[0];
+                y = -event.values[1];
+                break;
+            case Surface.ROTATION_270:
+                x = event.values[1];
+                y = -event.values[0];
+                break;
+            default:
+                x = event.values[0];
+                y = event.values[1];
+                break;
+        }
+
+        // Exponential low-pass, weighted by the time since the previous sample
+        if (lastEventTime == 0L) {
+            filteredX = x;
+            filteredY = y;
+        } else {
+            final float dT = Math.max(0L, event.timestamp - lastEventTime);
+            final float alpha = dT / (FILTER_TIME_CONSTANT_NANOS + dT);
+            filteredX += (x - filteredX) * alpha;
+            filteredY += (y - filteredY) * alpha;
+        }
+        lastEventTime = event.timestamp;
+
+        mainActivity.publishTilt(MainActivity.TiltSource.LOCAL, TiltCodec.NO_SEQUENCE, epochOffsetMicros + event.timestamp / 1000L,
+                System.nanoTime(), filteredX, filteredY);
+    }
+
+    @Override
+    public void onAccuracyChanged(final Sensor sensor, final int accuracy) {
+        // The accuracy doesn't change the tilt
+    }
+}
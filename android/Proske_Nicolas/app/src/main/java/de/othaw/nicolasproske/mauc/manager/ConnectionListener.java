@@ -0,0 +1,22 @@
+package de.othaw.nicolasproske.mauc.manager;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Receives the connection state of a {@link MQTTManager}. The callbacks are invoked
+ * on the main thread, so the UI may be updated directly.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public interface ConnectionListener {
+
+    /**
+     * Called after the connection state changed.
+     *
+     * @param state    the new state
+     * @param broker   the uri of the broker
+     * @param attempts the number of failed connection attempts in a row
+     */
+    void onConnectionStateChanged(MQTTManager.State state, String broker, int attempts);
+}
@@ -1,22 +1,51 @@
 package de.othaw.nicolasproske.mauc.manager;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
-import android.widget.Toast;
 
-import com.google.android.material.snackbar.Snackbar;
-
-import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
 
 import de.othaw.nicolasproske.mauc.MainActivity;
+import de.othaw.nicolasproske.mauc.engine.ParticleSnapshot;
+import de.othaw.nicolasproske.mauc.engine.Simulation;
+import de.othaw.nicolasproske.mauc.protocol.TelemetryCodec;
+import de.othaw.nicolasproske.mauc.protocol.OutboundPublisher;
+import de.othaw.nicolasproske.mauc.stats.LatencyTracer;
 
 /**
  * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Keeps the connection to the broker without ever blocking the caller. The asynchronous
+ * client reports back on its own threads, all state changes are handed to the main thread:
+ * <pre>
+ * DISCONNECTED --connect()--&gt; CONNECTING --success--&gt; CONNECTED
+ *                              CONNECTING --failure--&gt; BACKING_OFF --delay--&gt; CONNECTING
+ *                              CONNECTED  --lost-----&gt; BACKING_OFF
+ * any state --disconnect()--&gt; DISCONNECTED
+ * </pre>
+ * The delay between two attempts doubles up to a maximum and is randomized, so many
+ * devices don't hit a restarted broker at the same time. After every connect the
+ * sub-topic is subscribed again.
+ * <p>
+ * Outbound messages are handed to an {@link OutboundPublisher}, so publishing never
+ * waits for the broker. Optionally the positions of all balls are streamed to the
+ * telemetry topic as {@link TelemetryCodec} frames at a fixed rate, and the latency of the
+ * input messages is echoed to the diagnostics topic.
  *
  * @author Nicolas Proske
  * @author Prof. Dr.-Ing. Ulrich Schäfer
@@ -24,15 +53,82 @@ import de.othaw.nicolasproske.mauc.MainActivity;
  */
 public final class MQTTManager {
 
+    /**
+     * State of the connection to the broker.
+     */
+    public enum State {
+        DISCONNECTED, CONNECTING, CONNECTED, BACKING_OFF
+    }
+
+    // Maximum number of outbound messages waiting for the broker
+    private final static int PUBLISH_CAPACITY = 32;
+
+    // Time the publisher thread waits for a message to be delivered
+    private final static long PUBLISH_TIMEOUT_MILLIS = 5 * 1000L;
+
+    // Delay before the first retry, doubled for every failed attempt up to the maximum
+    private final static long INITIAL_BACKOFF_MILLIS = 500L;
+    private final static long MAX_BACKOFF_MILLIS = 30 * 1000L;
+
+    // Seconds until a connection attempt fails
+    private final static int CONNECTION_TIMEOUT_SECONDS = 5;
+
+    // MQTT quality of service level of the subscription
+    private final static int SUBSCRIBE_QOS = 0;
+
+    // Telemetry frames are skipped while more messages than this are queued or wait for their acknowledgement
+    private final static int TELEMETRY_MAX_PENDING = 1;
+
+    // Shortest interval of the latency echoes and interval of the latency percentiles
+    private final static long ECHO_INTERVAL_NANOS = 100_000_000L;
+    private final static long SUMMARY_INTERVAL_NANOS = 1_000_000_000L;
+
+    // Keys of the diagnostics messages, only the latest unsent one of each is kept
+    private final static String ECHO_KEY = "latency";
+    private final static String SUMMARY_KEY = "latency_summary";
+
     private final MainActivity mainActivity;
 
-    private MqttClient client;
+    // Also used by the publisher thread
+    private volatile MqttAsyncClient client;
     private final MemoryPersistence persistence;
 
+    // Sends the outbound messages on its own thread
+    private final OutboundPublisher publisher;
+
+    // Decodes the tilt messages on the callback thread without allocating
+    private int invalidMessages;
+
+    // Telemetry, only touched by the simulation thread except the interval
+    private final TelemetryCodec telemetryCodec = new TelemetryCodec();
+    private final ParticleSnapshot telemetrySnapshot = new ParticleSnapshot();
+    private byte[] telemetryBuffer = new byte[0];
+    private long lastTelemetryTime;
+    private volatile long telemetryIntervalNanos;
+
+    // Diagnostics, only touched by the main thread
+    private boolean diagnosticsEnabled;
+    private long lastEchoTime;
+    private long lastEchoedTrace;
+    private long lastSummaryTime;
+    private final StringBuilder echoText = new StringBuilder();
+
+    // Runs all state changes and the delayed reconnects
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable reconnect = this::attemptConnect;
+    private final Random random = new Random();
+
+    // Only changed on the main thread
+    private volatile State state = State.DISCONNECTED;
+    private int failedAttempts;
+    private ConnectionListener connectionListener;
+
     private final String tag;
     private String broker;
     private String sub_topic;
     private String pub_topic;
+    private volatile String telemetry_topic;
+    private String diagnostics_topic;
 
     /**
      * Instantiates a new Mqtt manager.
@@ -50,109 +146,446 @@ public final class MQTTManager {
         this.broker = "tcp://" + mainActivity.getSharedPreferences().getString("broker_ip", "192.168.2.76") + ":1883";
         this.sub_topic = mainActivity.getSharedPreferences().getString("broker_sub_topic", "StA/data");
         this.pub_topic = mainActivity.getSharedPreferences().getString("broker_pub_topic", "StA/message");
+        this.telemetry_topic = mainActivity.getSharedPreferences().getString("broker_telemetry_topic", "StA/state");
+        this.diagnostics_topic = mainActivity.getSharedPreferences().getString("broker_diagnostics_topic", "StA/diagnostics");
 
         // Set memory persistence
         this.persistence = new MemoryPersistence();
 
         this.tag = mainActivity.getClass().getSimpleName();
+
+        this.publisher = new OutboundPublisher(this::send, PUBLISH_CAPACITY,
+                (topic, cause) -> Log.w(tag, "Could not publish to " + topic + ": " + cause));
     }
 
     /**
-     * Connect to the broker.
+     * Start connecting to the broker and keep the connection until {@link #disconnect()}.
+     * Returns immediately, must be called on the main thread.
      */
     public void connect() {
-        // Update broker-ip and sub-topic with values set in the settings menu
+        if (state != State.DISCONNECTED) {
+            return;
+        }
+
+        // Update broker-ip and topics with values set in the settings menu
         this.broker = "tcp://" + mainActivity.getSharedPreferences().getString("broker_ip", "192.168.2.76") + ":1883";
         this.sub_topic = mainActivity.getSharedPreferences().getString("broker_sub_topic", "StA/data");
         this.pub_topic = mainActivity.getSharedPreferences().getString("broker_pub_topic", "StA/message");
+        this.telemetry_topic = mainActivity.getSharedPreferences().getString("broker_telemetry_topic", "StA/state");
+        this.diagnostics_topic = mainActivity.getSharedPreferences().getString("broker_diagnostics_topic", "StA/diagnostics");
 
-        try {
-            // Generate unique clientId
-            final String clientId = MqttClient.generateClientId();
-
-            // Create new MQTT client with generated clientId
-            client = new MqttClient(broker, clientId, persistence);
+        // Keep the client unless the broker was changed in the settings
+        if (client != null && !client.getServerURI().equals(broker)) {
+            releaseClient(client);
+            client = null;
+        }
 
-            // Set timeout if can not connect to broker (throws IllegalArgumentException)
-            client.setTimeToWait(5 * 1000);
+        if (client == null) {
+            try {
+                // Create new MQTT client with a generated unique clientId
+                client = new MqttAsyncClient(broker, MqttAsyncClient.generateClientId(), persistence);
+                client.setCallback(new ClientCallback(client));
+            } catch (final MqttException | IllegalArgumentException e) {
+                Log.e(tag, "Invalid broker " + broker + ": " + e);
+                return;
+            }
+        }
 
-            final MqttConnectOptions connectOptions = new MqttConnectOptions();
-            connectOptions.setCleanSession(true);
+        failedAttempts = 0;
+        attemptConnect();
+    }
 
-            Log.d(tag, "Connecting to broker: " + broker);
-            client.connect(connectOptions); // Connect to broker
-            Log.d(tag, "Connected to broker: " + broker);
+    /**
+     * Stop the connection and all reconnects. Returns immediately, must be called on the main thread.
+     */
+    public void disconnect() {
+        handler.removeCallbacks(reconnect);
+        publisher.stop();
 
-            // Display successful connected to the user
-            Snackbar.make(mainActivity.getSimulationView(), "Connected to broker: " + broker, Snackbar.LENGTH_LONG).show();
-        } catch (final MqttException e) {
-            Snackbar.make(mainActivity.getSimulationView(), "Could not connect to broker with ip " + broker, Snackbar.LENGTH_LONG).show();
-            Log.e(tag, "Reason: " + e.getReasonCode());
-            Log.e(tag, "Message: " + e.getMessage());
-            Log.e(tag, "LocalizedMsg: " + e.getLocalizedMessage());
-            Log.e(tag, "Cause: " + e.getCause());
-            Log.e(tag, "Exception: " + e);
+        final MqttAsyncClient client = this.client;
+        if (client != null && client.isConnected()) {
+            try {
+                client.disconnect();
+                Log.d(tag, "Disconnecting from broker " + broker);
+            } catch (final MqttException e) {
+                Log.w(tag, "Could not disconnect from " + broker + ": " + e);
+            }
         }
+
+        setState(State.DISCONNECTED);
     }
 
     /**
-     * Subscribe to specific sub-topic.
+     * Start one connection attempt, its result arrives on the main thread.
      */
-    public void subscribe() {
-        // MQTT quality of service level
-        final int qos = 0;
+    private void attemptConnect() {
+        final MqttAsyncClient client = this.client;
+
+        // A late result of an earlier attempt may have connected the client already
+        if (client.isConnected()) {
+            onConnected(client);
+            return;
+        }
+
+        final MqttConnectOptions connectOptions = new MqttConnectOptions();
+        connectOptions.setCleanSession(true);
+        connectOptions.setConnectionTimeout(CONNECTION_TIMEOUT_SECONDS);
+
+        // A whole batch of the publisher is in flight at once
+        connectOptions.setMaxInflight(PUBLISH_CAPACITY);
+
+        setState(State.CONNECTING);
+        Log.d(tag, "Connecting to broker: " + broker);
 
         try {
-            // Subscribe to sub-topic and convert got message with help of the split method to the x-/y mouse acceleration
-            client.subscribe(sub_topic, qos, (topic, msg) -> {
-                mainActivity.setMouseXAcceleration(Float.parseFloat(new String(msg.getPayload()).split(",")[0]));
-                mainActivity.setMouseYAcceleration(Float.parseFloat(new String(msg.getPayload()).split(",")[1]));
+            client.connect(connectOptions, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(final IMqttToken token) {
+                    handler.post(() -> onConnected(client));
+                }
+
+                @Override
+                public void onFailure(final IMqttToken token, final Throwable exception) {
+                    handler.post(() -> onConnectionFailed(client, exception));
+                }
             });
         } catch (final MqttException e) {
-            e.printStackTrace();
+            onConnectionFailed(client, e);
+        }
+    }
+
+    private void onConnected(final MqttAsyncClient client) {
+        // Ignore results of a replaced client
+        if (client != this.client || state == State.CONNECTED) {
+            return;
+        }
+
+        // The attempt succeeded after a disconnect
+        if (state == State.DISCONNECTED) {
+            try {
+                client.disconnect();
+            } catch (final MqttException e) {
+                Log.w(tag, "Could not disconnect from " + broker + ": " + e);
+            }
+            return;
         }
 
-        // Display successful connected to the user
-        Toast.makeText(mainActivity, "Subscribed to topic " + sub_topic, Toast.LENGTH_SHORT).show();
+        handler.removeCallbacks(reconnect);
+
+        Log.d(tag, "Connected to broker: " + broker);
+        failedAttempts = 0;
+        setState(State.CONNECTED);
+
+        // A clean session forgets the subscription, so subscribe on every connect
+        subscribe(client);
+
+        // Send the messages queued while disconnected
+        publisher.start();
+
+        // Frames sent before may have been lost, so start the stream again
+        telemetryCodec.requestKeyframe();
+    }
+
+    private void onConnectionFailed(final MqttAsyncClient client, final Throwable cause) {
+        if (client != this.client || state == State.DISCONNECTED || state == State.BACKING_OFF) {
+            return;
+        }
+
+        publisher.stop();
+        failedAttempts++;
+
+        // Exponential backoff with full jitter: a random delay up to the current limit
+        final long limit = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failedAttempts - 1, 16));
+        final long delay = (long) (random.nextDouble() * limit);
+
+        Log.w(tag, "Connection to " + broker + " failed (" + cause + "), retry " + failedAttempts + " in " + delay + " ms");
+        setState(State.BACKING_OFF);
+        handler.postDelayed(reconnect, delay);
     }
 
     /**
-     * Disconnect.
+     * Subscribe to the sub-topic and decode the binary or "x,y" payload to the tilt.
      */
-    public void disconnect() {
+    private void subscribe(final MqttAsyncClient client) {
+        try {
+            client.subscribe(sub_topic, SUBSCRIBE_QOS, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(final IMqttToken token) {
+                    Log.d(tag, "Subscribed to topic " + sub_topic);
+                }
+
+                @Override
+                public void onFailure(final IMqttToken token, final Throwable exception) {
+                    Log.e(tag, "Could not subscribe to topic " + sub_topic + ": " + exception);
+                }
+            }, (topic, msg) -> {
+                // Arrival of the message, the start of its latency trace
+                final long receiveTime = System.nanoTime();
+
+                // Decoded and placed in the jitter buffer by the tilt receiver of the particle manager
+                if (!mainActivity.receiveTilt(MainActivity.TiltSource.REMOTE, msg.getPayload(), receiveTime)
+                        && invalidMessages++ == 0) {
+                    // Only report the first one, a broken controller would flood the log
+                    Log.w(tag, "Ignoring invalid tilt message on " + topic);
+                }
+            });
+        } catch (final MqttException e) {
+            Log.e(tag, "Could not subscribe to topic " + sub_topic + ": " + e);
+        }
+    }
+
+    /**
+     * Disconnect and close a client which is not used anymore, without waiting for it.
+     */
+    private void releaseClient(final MqttAsyncClient client) {
         try {
-            // Unsubscribe from sub-topic
-            client.unsubscribe(sub_topic);
-            Log.d(tag, "Unsubscribed from topic " + sub_topic);
-            client.disconnect();
-            Log.d(tag, "Disconnected from broker " + broker);
+            if (client.isConnected()) {
+                client.disconnect(null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(final IMqttToken token) {
+                        close(client);
+                    }
+
+                    @Override
+                    public void onFailure(final IMqttToken token, final Throwable exception) {
+                        close(client);
+                    }
+                });
+            } else {
+                close(client);
+            }
         } catch (final MqttException e) {
-            e.printStackTrace();
+            close(client);
+        }
+    }
+
+    private void close(final MqttAsyncClient client) {
+        try {
+            client.close();
+        } catch (final MqttException e) {
+            Log.w(tag, "Could not close client of " + client.getServerURI() + ": " + e);
+        }
+    }
+
+    private void setState(final State state) {
+        if (this.state == state) {
+            return;
+        }
+
+        this.state = state;
+        if (connectionListener != null) {
+            connectionListener.onConnectionStateChanged(state, broker, failedAttempts);
         }
     }
 
     /**
-     * Publish data to specific sub-topic.
+     * Publish data to the pub-topic. The message is queued and sent by the publisher
+     * thread, so this never blocks.
      *
      * @param payload the payload
      *                This is the message to be published
      */
     public void publish(final String payload) {
-        final byte[] encodedPayload;
-        try {
-            // Get bytes and convert them to UTF-8 standard charset
-            encodedPayload = payload.getBytes(StandardCharsets.UTF_8);
+        publish(null, payload);
+    }
 
-            // Convert bytes to a MqttMessage which will be sent to the broker
-            final MqttMessage message = new MqttMessage(encodedPayload);
-            message.setRetained(true);
+    /**
+     * Publish data to the pub-topic. A queued message with the same key which was
+     * not sent yet is replaced, e.g. to send only the latest score.
+     *
+     * @param key     the key, null to never replace the message
+     * @param payload the payload
+     */
+    public void publish(final String key, final String payload) {
+        // Get bytes and convert them to UTF-8 standard charset
+        publisher.offer(pub_topic, key, payload.getBytes(StandardCharsets.UTF_8), true);
+    }
 
-            // Send message to the broker with specific sub-topic
-            client.publish(pub_topic, message);
+    /**
+     * Publish the positions of all balls if the telemetry interval has passed. Frames are
+     * skipped while disconnected or while the previous one still waits for the broker, so
+     * a slow network lowers the rate instead of filling the queue. Keyframes are retained,
+     * so a dashboard which subscribes while the board is at rest gets its state right away.
+     * Must only be called by the simulation thread.
+     *
+     * @param simulation the simulation
+     * @param timestamp  the current monotonic timestamp in nanoseconds
+     */
+    public void publishTelemetry(final Simulation simulation, final long timestamp) {
+        final long interval = telemetryIntervalNanos;
+        if (interval <= 0L || timestamp - lastTelemetryTime < interval) {
+            return;
+        }
+        if (state != State.CONNECTED
+                || publisher.getPendingCount() + publisher.getInFlightCount() > TELEMETRY_MAX_PENDING) {
+            return;
+        }
+        lastTelemetryTime = timestamp;
 
-            Log.d(tag, "Published to " + pub_topic + ": " + message);
-        } catch (final MqttException e) {
-            e.printStackTrace();
+        telemetrySnapshot.copyFrom(simulation.getParticleStore(), timestamp);
+
+        final int maxSize = TelemetryCodec.getMaxFrameSize(telemetrySnapshot.size());
+        if (telemetryBuffer.length < maxSize) {
+            telemetryBuffer = new byte[maxSize];
+        }
+
+        final int length = telemetryCodec.encode(telemetrySnapshot, simulation.getHorizontalBound(),
+                simulation.getVerticalBound(), System.currentTimeMillis() * 1000L, telemetryBuffer, 0);
+
+        // Nothing moved since the last frame
+        if (length > 0) {
+            // One copy per frame: the publisher and the client keep the payload until it is sent,
+            // so the encode buffer can't be handed over
+            publisher.offer(telemetry_topic, null, Arrays.copyOf(telemetryBuffer, length), telemetryCodec.isKeyframe());
+        }
+    }
+
+    /**
+     * Sets the rate of the telemetry stream.
+     *
+     * @param rate the frames per second, 0 to disable the stream
+     */
+    public void setTelemetryRate(final int rate) {
+        telemetryIntervalNanos = rate > 0 ? 1_000_000_000L / rate : 0L;
+        telemetryCodec.requestKeyframe();
+    }
+
+    /**
+     * Echo the latency of the latest presented input message to the diagnostics topic, at most
+     * once per echo interval, and the percentiles of all stages once per second. An echo
+     * carries the sequence number and timestamp of the sender, so the controller can match it
+     * with its own message:
+     * <pre>
+     * Latency,&lt;sequence&gt;,&lt;sender timestamp us&gt;,&lt;network us&gt;,&lt;receive to consume us&gt;,&lt;consume to present us&gt;
+     * </pre>
+     * The percentiles are sent in the format of the dumped frame stats. Unsent messages are
+     * replaced by newer ones. Must be called on the main thread.
+     *
+     * @param tracer    the latency tracer
+     * @param timestamp the current monotonic timestamp in nanoseconds
+     */
+    public void publishDiagnostics(final LatencyTracer tracer, final long timestamp) {
+        if (!diagnosticsEnabled || state != State.CONNECTED) {
+            return;
+        }
+
+        if (tracer.getLastPresented() != lastEchoedTrace && timestamp - lastEchoTime >= ECHO_INTERVAL_NANOS) {
+            lastEchoTime = timestamp;
+            lastEchoedTrace = tracer.getLastPresented();
+
+            echoText.setLength(0);
+            echoText.append("Latency,")
+                    .append(tracer.getLastSequence()).append(',')
+                    .append(tracer.getLastSenderTimestamp() == LatencyTracer.NO_TIMESTAMP ? 0L : tracer.getLastSenderTimestamp()).append(',')
+                    .append(tracer.getLastNetworkNanos() / 1000L).append(',')
+                    .append(tracer.getLastConsumeNanos() / 1000L).append(',')
+                    .append(tracer.getLastPresentNanos() / 1000L);
+            publisher.offer(diagnostics_topic, ECHO_KEY, echoText.toString().getBytes(StandardCharsets.UTF_8), false);
+        }
+
+        if (timestamp - lastSummaryTime >= SUMMARY_INTERVAL_NANOS) {
+            lastSummaryTime = timestamp;
+
+            final StringWriter writer = new StringWriter();
+            try {
+                writer.write("name,count,mean,p50,p90,p99,max\n");
+                tracer.write(writer);
+            } catch (final IOException e) {
+                // A StringWriter does not fail
+                return;
+            }
+            publisher.offer(diagnostics_topic, SUMMARY_KEY, writer.toString().getBytes(StandardCharsets.UTF_8), false);
+        }
+    }
+
+    /**
+     * Sets whether the latency of the input messages is published to the diagnostics topic.
+     * Must be called on the main thread.
+     *
+     * @param diagnosticsEnabled true to publish the latency
+     */
+    public void setDiagnosticsEnabled(final boolean diagnosticsEnabled) {
+        this.diagnosticsEnabled = diagnosticsEnabled;
+    }
+
+    /**
+     * Hand a message to the client, called on the publisher thread. The returned delivery
+     * waits for the acknowledgement of the broker.
+     */
+    private OutboundPublisher.Delivery send(final String topic, final byte[] payload, final boolean retained) throws MqttException {
+        final MqttAsyncClient client = this.client;
+        if (client == null || !client.isConnected()) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }
+
+        // Convert bytes to a MqttMessage which will be sent to the broker
+        final MqttMessage message = new MqttMessage(payload);
+        message.setRetained(retained);
+
+        // Send message to the broker with specific topic, the publisher thread waits for the whole batch
+        final IMqttDeliveryToken token = client.publish(topic, message);
+
+        return () -> {
+            token.waitForCompletion(PUBLISH_TIMEOUT_MILLIS);
+
+            // Only the text messages like the score, telemetry and diagnostics are sent many times per second
+            if (topic.equals(pub_topic) && Log.isLoggable(tag, Log.DEBUG)) {
+                Log.d(tag, "Published to " + topic + ": " + message);
+            }
+        };
+    }
+
+    /**
+     * Gets state of the connection.
+     *
+     * @return the state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Sets the listener which is informed about the connection state on the main thread.
+     *
+     * @param connectionListener the listener, null for none
+     */
+    public void setConnectionListener(final ConnectionListener connectionListener) {
+        this.connectionListener = connectionListener;
+    }
+
+    /**
+     * Gets the publisher which sends the outbound messages.
+     *
+     * @return the outbound publisher
+     */
+    public OutboundPublisher getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * Hands the loss of the connection to the main thread.
+     */
+    private final class ClientCallback implements MqttCallback {
+
+        private final MqttAsyncClient client;
+
+        private ClientCallback(final MqttAsyncClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void connectionLost(final Throwable cause) {
+            handler.post(() -> onConnectionFailed(client, cause));
+        }
+
+        @Override
+        public void messageArrived(final String topic, final MqttMessage message) {
+            // Delivered to the listener of the subscription
+        }
+
+        @Override
+        public void deliveryComplete(final IMqttDeliveryToken token) {
+            // Nothing to do, the publisher waits for the token
         }
     }
 }
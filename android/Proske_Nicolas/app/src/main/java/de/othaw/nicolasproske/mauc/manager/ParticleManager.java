@@ -1,17 +1,41 @@
 package de.othaw.nicolasproske.mauc.manager;
 
+import android.os.Process;
+import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import de.othaw.nicolasproske.mauc.MainActivity;
 import de.othaw.nicolasproske.mauc.R;
+import de.othaw.nicolasproske.mauc.engine.CollisionSolver;
+import de.othaw.nicolasproske.mauc.engine.InputChannel;
+import de.othaw.nicolasproske.mauc.engine.JitterBuffer;
+import de.othaw.nicolasproske.mauc.engine.Level;
+import de.othaw.nicolasproske.mauc.engine.Simulation;
+import de.othaw.nicolasproske.mauc.engine.SnapshotBuffer;
 import de.othaw.nicolasproske.mauc.object.Particle;
+import de.othaw.nicolasproske.mauc.protocol.TiltReceiver;
+import de.othaw.nicolasproske.mauc.stats.FrameStats;
+import de.othaw.nicolasproske.mauc.stats.LatencyTracer;
+import de.othaw.nicolasproske.mauc.view.SimulationView;
 
 /**
  * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Connects the headless {@link Simulation} to the app. Creates the views of the balls
+ * if the view renders one view per ball, steps the simulation on its own thread and
+ * publishes the score to the broker. The simulation thread is paced by the frames of the
+ * display: every vsync hands its frame time over and the simulation advances to it.
+ * The tilt reaches the simulation through a {@link JitterBuffer} and an {@link InputChannel},
+ * which each step reads at its own time.
  *
  * @author Nicolas Proske
  * @author googlearchive (The Android Open Source Project)
@@ -20,8 +44,49 @@ import de.othaw.nicolasproske.mauc.object.Particle;
 public final class ParticleManager {
 
     private final static int NUM_PARTICLES = 15;
+
+    // Marks that no frame has been requested since the start
+    private final static long NO_FRAME = Long.MIN_VALUE;
+
+    // Key of the score messages, only the latest unsent one is kept
+    private final static String SCORE_KEY = "score";
+
+    // Number of tilt samples kept for the interpolation, a second at high message rates
+    private final static int INPUT_CAPACITY = 256;
+
     private final MainActivity mainActivity;
-    private final List<Particle> balls = new CopyOnWriteArrayList<>();
+
+    // Physics of all balls
+    private final Simulation simulation;
+
+    // Render-only views of the balls, indexed by the particle id, empty if the view draws the balls itself
+    private final Particle[] balls = new Particle[NUM_PARTICLES];
+
+    // Timestamped tilt written by the input thread and read by the simulation thread
+    private final InputChannel inputChannel = new InputChannel(INPUT_CAPACITY);
+
+    // Places the remote tilt by the sender timestamps and reads it slightly delayed
+    private final JitterBuffer jitterBuffer = new JitterBuffer(inputChannel);
+
+    // Decodes the tilt messages and places them in the jitter buffer
+    private final TiltReceiver tiltReceiver = new TiltReceiver(jitterBuffer);
+
+    // Instrumentation of the frames, shared with the view
+    private final FrameStats frameStats = new FrameStats();
+
+    // Follows the input messages from their arrival to the drawn frame
+    private final LatencyTracer latencyTracer = new LatencyTracer();
+
+    private final String tag;
+
+    private Thread simulationThread;
+    private volatile boolean running;
+
+    // Vsync time of the latest frame, the simulation thread advances to it
+    private final AtomicLong frameTime = new AtomicLong(NO_FRAME);
+
+    // Set when the frames were suspended, the clock must not simulate the time in between
+    private final AtomicBoolean clockResetRequested = new AtomicBoolean();
 
     /**
      * Instantiates a new Particle manager.
@@ -30,177 +95,316 @@ public final class ParticleManager {
      */
     public ParticleManager(final MainActivity mainActivity) {
         this.mainActivity = mainActivity;
+        this.tag = mainActivity.getClass().getSimpleName();
+
+        final SimulationView simulationView = mainActivity.getSimulationView();
+
+        this.simulation = new Simulation(simulationView.getsBallDiameter(), NUM_PARTICLES);
 
         /*
          * Initially our particles have no speed or acceleration
          */
-        Particle[] tempBalls = new Particle[NUM_PARTICLES];
+        for (int i = 0; i < NUM_PARTICLES; i++) {
+            // Generate random position between zero and one
+            simulation.addParticle((float) Math.random(), (float) Math.random());
+        }
+
+        // Publish the score whenever balls were captured
+        simulation.setListener((scored, score) -> mainActivity.getMqttManager().publish(SCORE_KEY, "Scored, " + score));
 
-        for (int i = 0; i < tempBalls.length; i++) {
-            // Create particle
-            tempBalls[i] = new Particle(mainActivity.getSimulationView().getContext(), mainActivity);
-            tempBalls[i].setBackgroundResource(R.drawable.ball);
-            tempBalls[i].setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        // Publish the initial positions so the view has something to draw
+        simulation.publishSnapshot(0L);
+    }
 
-            // Add created particle to array-list
-            balls.add(tempBalls[i]);
+    /**
+     * Create a view for every ball which has none yet and add it to the simulation view.
+     */
+    public void createBallViews() {
+        final SimulationView simulationView = mainActivity.getSimulationView();
+
+        for (int id = 0; id < NUM_PARTICLES; id++) {
+            if (balls[id] != null) {
+                continue;
+            }
+
+            // Create view of the particle
+            balls[id] = new Particle(simulationView.getContext(), id);
+            balls[id].setBackgroundResource(R.drawable.ball);
+            balls[id].setLayerType(View.LAYER_TYPE_HARDWARE, null);
 
             // Add ball to the simulation view so the ball will be displayed
-            mainActivity.getSimulationView().addView(tempBalls[i], new ViewGroup.LayoutParams(mainActivity.getSimulationView().getParticleWidth(), mainActivity.getSimulationView().getParticleHeight()));
+            simulationView.addView(balls[id], new ViewGroup.LayoutParams(simulationView.getParticleWidth(), simulationView.getParticleHeight()));
+        }
+    }
+
+    /**
+     * Remove the views of all balls from the simulation view.
+     */
+    public void removeBallViews() {
+        final SimulationView simulationView = mainActivity.getSimulationView();
+
+        for (int id = 0; id < NUM_PARTICLES; id++) {
+            if (balls[id] != null) {
+                simulationView.removeView(balls[id]);
+                balls[id] = null;
+            }
+        }
+    }
+
+    /**
+     * Start the simulation thread, if it is not already running.
+     */
+    public void start() {
+        if (simulationThread != null) {
+            return;
+        }
+
+        running = true;
+        frameTime.set(NO_FRAME);
+        simulationThread = new Thread(this::run, "Simulation");
+        simulationThread.start();
+    }
+
+    /**
+     * Stop the simulation thread and wait until it has finished its current step.
+     */
+    public void stop() {
+        if (simulationThread == null) {
+            return;
+        }
+
+        running = false;
+        simulationThread.interrupt();
+
+        try {
+            simulationThread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        simulationThread = null;
+
+        // Don't simulate the time the simulation was stopped
+        simulation.getClock().reset();
     }
 
     /**
-     * Update the position of each particle in the system using the Verlet integrator.
-     * The Verlet algorithm is a method for the numerical solution of Newton's equations of motion.
-     * Check if one of the balls displayed on the screen met the circle - if so, remove them
+     * Hand the time of a new frame to the simulation thread, called on every vsync.
      *
-     * @param x         the new x position of the ball
-     * @param y         the new y position of the ball
-     * @param timestamp the current timestamp
+     * @param frameTimeNanos the vsync time of the frame in the time base of {@link System#nanoTime()}
      */
-    public void updatePositions(final float x, final float y, final long timestamp) {
-        // Update only if the last update timestamp is not zero
-        if (mainActivity.getSimulationView().getLastTimeStamp() != 0) {
-            final float dateTime = (float) (timestamp - mainActivity.getSimulationView().getLastTimeStamp()) / 1000.f;
+    public void requestStep(final long frameTimeNanos) {
+        frameTime.set(frameTimeNanos);
 
-            for (int i = 0; i < balls.size(); i++) {
-                final Particle ball = balls.get(i);
+        final Thread thread = simulationThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
 
-                // Recompute the position of each ball
-                ball.computePhysics(x, y, dateTime);
+    /**
+     * Let the simulation thread reset its clock before the next frame,
+     * e.g. after no frames were requested for a while.
+     */
+    public void requestClockReset() {
+        clockResetRequested.set(true);
+    }
 
-                // Get x and y coordinate of current ball to check, if the ball is in inner circle
-                final double ballDx = Math.pow(ball.getX() - mainActivity.getSimulationView().getPaintCircleX(), 2);
-                final double ballDy = Math.pow(ball.getY() - mainActivity.getSimulationView().getPaintCircleY(), 2);
+    /**
+     * Main loop of the simulation thread. Advances the simulation with the tilt of the
+     * jitter buffer to the time of each new frame and sleeps in between.
+     */
+    private void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+
+        long lastFrameTime = NO_FRAME;
 
-                // Check if ball is in inner circle
-                if ((ballDx + ballDy) < Math.pow(mainActivity.getSimulationView().getPaintCircleRadius(), 2)) {
-                    // * Ball is in inner circle *
-                    // Remove ball from view
-                    mainActivity.getSimulationView().removeView(ball);
+        while (running) {
+            final long timestamp = frameTime.get();
+
+            if (timestamp != lastFrameTime) {
+                lastFrameTime = timestamp;
+                if (clockResetRequested.getAndSet(false)) {
+                    simulation.getClock().reset();
+                }
+                final long start = System.nanoTime();
+                final int steps = simulation.advance(jitterBuffer, timestamp);
 
-                    // Remove ball from ArrayList
-                    balls.remove(i);
+                if (steps > 0) {
+                    frameStats.getPhysicsNanos().record(System.nanoTime() - start);
+                    frameStats.getSolverIterations().record(simulation.getLastIterations());
 
-                    // Update count of scored balls by adding one to the score
-                    mainActivity.getSimulationView().setScore(mainActivity.getSimulationView().getScore() + 1);
+                    // The input read up to the last step is part of the published snapshot now
+                    latencyTracer.consume(simulation.getLastStepTime() - jitterBuffer.getDelay(), timestamp, System.nanoTime());
 
-                    mainActivity.getMqttManager().publish("Scored, " + mainActivity.getSimulationView().getScore());
-                    break;
+                    // Mirror the board to remote dashboards if enabled
+                    mainActivity.getMqttManager().publishTelemetry(simulation, timestamp);
                 }
+            } else {
+                // Wait for the next frame
+                LockSupport.park(this);
             }
         }
-        mainActivity.getSimulationView().setLastTimeStamp(timestamp);
     }
 
     /**
-     * Performs one iteration of the simulation. First updating the
-     * position of all the particles and resolving the constraints and
-     * collisions.
+     * Gets simulation.
+     *
+     * @return the simulation
+     */
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * Checks if captured balls are respawned.
      *
-     * @param x         the new x position of the ball
-     * @param y         the new y position of the ball
-     * @param timestamp the current timestamp
+     * @return true if the respawn mode is enabled
      */
-    public void update(final float x, final float y, long timestamp) {
-        // update the system's positions
-        updatePositions(x, y, timestamp);
+    public boolean isRespawn() {
+        return simulation.isRespawn();
+    }
 
-        // We do no more than a limited number of iterations
-        final int NUM_MAX_ITERATIONS = 10;
+    /**
+     * Sets whether captured balls are respawned at a random position instead of removed.
+     *
+     * @param respawn true to enable the respawn mode
+     */
+    public void setRespawn(final boolean respawn) {
+        simulation.setRespawn(respawn);
+    }
 
-        /*
-         * Resolve collisions, each particle is tested against every
-         * other particle for collision. If a collision is detected the
-         * particle is moved away using a virtual spring of infinite
-         * stiffness.
-         */
-        boolean more = true;
-        final int count = balls.size();
-
-        for (int k = 0; k < NUM_MAX_ITERATIONS && more; k++) {
-            more = false;
-
-            // Iterate over all balls
-            for (int i = 0; i < count; i++) {
-                final Particle curr = balls.get(i);
-
-                for (int j = i + 1; j < count; j++) {
-                    final Particle ball = balls.get(j);
-                    float dx = ball.getPosX() - curr.getPosX();
-                    float dy = ball.getPosY() - curr.getPosY();
-                    // dd is to detect ball by ball collision
-                    float dd = dx * dx + dy * dy;
-
-                    // Check for collisions
-                    if (dd <= mainActivity.getSimulationView().getsBallDiameter2()) {
-                        /*
-                         * add a little bit of entropy, after nothing is
-                         * perfect in the universe.
-                         */
-                        dx += ((float) Math.random() - 0.5f) * 0.0001f;
-                        dy += ((float) Math.random() - 0.5f) * 0.0001f;
-                        dd = dx * dx + dy * dy;
-
-                        // simulate the spring
-                        final float d = (float) Math.sqrt(dd);
-                        final float c = (0.5f * (mainActivity.getSimulationView().getsBallDiameter() - d)) / d;
-                        final float effectX = dx * c;
-                        final float effectY = dy * c;
-
-                        // Update ball position with calculated effect so the balls don't overlap each other
-                        curr.setPosX(curr.getPosX() - effectX);
-                        curr.setPosY(curr.getPosY() - effectY);
-                        ball.setPosX(ball.getPosX() + effectX);
-                        ball.setPosX(ball.getPosX() + effectX);
-                        ball.setPosY(ball.getPosY() + effectY);
-
-                        more = true;
-                    }
-                }
-                // Calculate the new ball positions if collision with phone bounds was detected
-                curr.resolveCollisionWithBounds();
-            }
+    /**
+     * Load a level from the raw resources and hand it over to the simulation.
+     * If the level is unknown or invalid, the board is left without a level.
+     *
+     * @param name the name of the level as stored in the preferences, "none" for no level
+     */
+    public void loadLevel(final String name) {
+        final int resource = getLevelResource(name);
+
+        if (resource == 0) {
+            simulation.setLevel(Level.EMPTY);
+            return;
+        }
+
+        try (Reader reader = new InputStreamReader(mainActivity.getResources().openRawResource(resource), StandardCharsets.UTF_8)) {
+            simulation.setLevel(Level.parse(reader));
+            Log.d(tag, "Loaded level " + name);
+        } catch (final IOException | IllegalArgumentException e) {
+            Log.e(tag, "Could not load level " + name, e);
+            simulation.setLevel(Level.EMPTY);
         }
     }
 
+    private static int getLevelResource(final String name) {
+        switch (name) {
+            case "level_1":
+                return R.raw.level_1;
+            case "level_2":
+                return R.raw.level_2;
+            default:
+                return 0;
+        }
+    }
 
     /**
-     * Gets particle count.
+     * Gets solver mode.
      *
-     * @return the particle count
+     * @return the solver mode
      */
-    public int getParticleCount() {
-        return balls.size();
+    public CollisionSolver.Mode getSolverMode() {
+        return simulation.getSolverMode();
+    }
+
+    /**
+     * Sets solver mode, can be changed while the simulation is running.
+     *
+     * @param mode the solver mode
+     */
+    public void setSolverMode(final CollisionSolver.Mode mode) {
+        simulation.setSolverMode(mode);
+    }
+
+    /**
+     * Gets the instrumentation of the frames.
+     *
+     * @return the frame stats
+     */
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    /**
+     * Gets the receiver which places the tilt in the jitter buffer.
+     * Must only be used by one thread at a time.
+     *
+     * @return the tilt receiver
+     */
+    public TiltReceiver getTiltReceiver() {
+        return tiltReceiver;
+    }
+
+    /**
+     * Gets the tracer of the input latency.
+     *
+     * @return the latency tracer
+     */
+    public LatencyTracer getLatencyTracer() {
+        return latencyTracer;
+    }
+
+    /**
+     * Gets the channel through which the tilt reaches the simulation.
+     *
+     * @return the input channel
+     */
+    public InputChannel getInputChannel() {
+        return inputChannel;
+    }
+
+    /**
+     * Gets the jitter buffer which smooths the remote tilt.
+     *
+     * @return the jitter buffer
+     */
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
     }
 
     /**
-     * Gets balls.
+     * Gets the buffer with the latest published particle positions.
      *
-     * @return the balls
+     * @return the snapshot buffer
      */
-    public List<Particle> getBalls() {
-        return balls;
+    public SnapshotBuffer getSnapshots() {
+        return simulation.getSnapshots();
     }
 
     /**
-     * Gets x position of a specific ball.
+     * Gets current count of scored balls.
      *
-     * @param i the i-th ball
-     * @return the x position of the i-th ball
+     * @return the score
      */
-    public float getPosX(int i) {
-        return balls.get(i).getPosX();
+    public int getScore() {
+        return simulation.getScore();
+    }
+
+    /**
+     * Gets particle count.
+     *
+     * @return the particle count
+     */
+    public int getParticleCount() {
+        return simulation.getParticleCount();
     }
 
     /**
-     * Gets y position of a specific ball.
+     * Gets view of a specific ball.
      *
-     * @param i the i-th ball
-     * @return the y position of the i-th ball
+     * @param i the particle id of the ball
+     * @return the view of the ball, or null if the balls have no views
      */
-    public float getPosY(int i) {
-        return balls.get(i).getPosY();
+    public Particle getBall(int i) {
+        return balls[i];
     }
 }
@@ -4,10 +4,12 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.view.View;
 
-import de.othaw.nicolasproske.mauc.MainActivity;
-
 /**
  * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Render-only handle of a ball. The physical state lives in the {@link de.othaw.nicolasproske.mauc.engine.ParticleStore},
+ * the view only displays the particle with its id. Views are kept when their ball is
+ * captured and reused when a particle with the same id is spawned again.
  *
  * @author Nicolas Proske
  * @author googlearchive (The Android Open Source Project)
@@ -16,108 +18,27 @@ import de.othaw.nicolasproske.mauc.MainActivity;
 @SuppressLint("ViewConstructor")
 public final class Particle extends View {
 
-    private final MainActivity mainActivity;
-
-    // Generate random number between zero and one
-    private float posX = (float) Math.random();
-    private float posY = (float) Math.random();
-
-    // x-/y velocity of particle/ball
-    private float velX;
-    private float velY;
+    // Id of the particle in the particle store
+    private final int particleId;
 
 
     /**
      * Instantiates a new Particle.
      *
-     * @param context      the context
-     * @param mainActivity the main activity
+     * @param context    the context
+     * @param particleId the id of the particle in the particle store
      */
-    public Particle(final Context context, final MainActivity mainActivity) {
+    public Particle(final Context context, final int particleId) {
         super(context);
-        this.mainActivity = mainActivity;
-    }
-
-    /**
-     * Compute physics for all balls and update their vectors.
-     *
-     * @param sx the mouse acceleration in x direction
-     * @param sy the mouse acceleration in y direction
-     * @param dT the dt
-     */
-    public void computePhysics(final float sx, final float sy, final float dT) {
-        final float ax = -sx / 5;
-        final float ay = -sy / 5;
-
-        posX += velX * dT + ax * dT * dT / 2;
-        posY += velY * dT + ay * dT * dT / 2;
-
-        velX += ax * dT;
-        velY += ay * dT;
-    }
-
-    /**
-     * Resolving constraints and collisions with the Verlet integrator
-     * can be very simple, we simply need to move a colliding or
-     * constrained particle in such way that the constraint is
-     * satisfied.
-     */
-    public void resolveCollisionWithBounds() {
-        final float xMax = mainActivity.getSimulationView().getHorizontalBound();
-        final float yMax = mainActivity.getSimulationView().getVerticalBound();
-        final float x = posX;
-        final float y = posY;
-
-        if (x > xMax) {
-            posX = xMax;
-            velX = 0;
-        } else if (x < -xMax) {
-            posX = -xMax;
-            velX = 0;
-        }
-
-        if (y > yMax) {
-            posY = yMax;
-            velY = 0;
-        } else if (y < -yMax) {
-            posY = -yMax;
-            velY = 0;
-        }
-    }
-
-    /**
-     * Gets relative x position.
-     *
-     * @return the x position
-     */
-    public float getPosX() {
-        return posX;
-    }
-
-    /**
-     * Sets relative x position.
-     *
-     * @param posX the x position
-     */
-    public void setPosX(float posX) {
-        this.posX = posX;
-    }
-
-    /**
-     * Gets relative y position.
-     *
-     * @return the y position
-     */
-    public float getPosY() {
-        return posY;
+        this.particleId = particleId;
     }
 
     /**
-     * Sets relative y position.
+     * Gets id of the particle in the particle store.
      *
-     * @param posY the y position
+     * @return the particle id
      */
-    public void setPosY(float posY) {
-        this.posY = posY;
+    public int getParticleId() {
+        return particleId;
     }
 }
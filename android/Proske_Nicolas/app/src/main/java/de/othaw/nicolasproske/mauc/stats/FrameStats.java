@@ -0,0 +1,155 @@
+package de.othaw.nicolasproske.mauc.stats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.othaw.nicolasproske.mauc.engine.stats.Histogram;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Per-frame instrumentation of the app. The simulation thread records the physics time
+ * and the solver iterations, the view records frame interval, draw time and particle count,
+ * the MQTT callback counts the input messages. All values are kept in {@link Histogram}s,
+ * so recording is lock-free and does not allocate.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class FrameStats {
+
+    // Interval in which the input message rate is sampled
+    private final static long RATE_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final Histogram frameNanos = new Histogram("frame_ns");
+    private final Histogram physicsNanos = new Histogram("physics_ns");
+    private final Histogram drawNanos = new Histogram("draw_ns");
+    private final Histogram solverIterations = new Histogram("solver_iterations");
+    private final Histogram particleCount = new Histogram("particles");
+    private final Histogram inputRate = new Histogram("input_per_s");
+
+    private final Histogram[] histograms = {frameNanos, physicsNanos, drawNanos, solverIterations, particleCount, inputRate};
+
+    // Input messages since the last sample of the rate
+    private final AtomicLong inputMessages = new AtomicLong();
+    private long rateSampleStart;
+
+    /**
+     * Count one received input message. May be called from any thread.
+     */
+    public void recordInputMessage() {
+        inputMessages.incrementAndGet();
+    }
+
+    /**
+     * Record the input message rate if the sample interval has passed.
+     * Must only be called by one thread, e.g. once per frame.
+     *
+     * @param timestamp the current timestamp in nanoseconds
+     */
+    public void sampleInputRate(final long timestamp) {
+        if (rateSampleStart == 0L) {
+            rateSampleStart = timestamp;
+            return;
+        }
+
+        final long elapsed = timestamp - rateSampleStart;
+        if (elapsed >= RATE_INTERVAL_NANOS) {
+            inputRate.record(inputMessages.getAndSet(0L) * RATE_INTERVAL_NANOS / elapsed);
+            rateSampleStart = timestamp;
+        }
+    }
+
+    /**
+     * Remove all recorded values.
+     */
+    public void reset() {
+        for (final Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        inputMessages.set(0L);
+        rateSampleStart = 0L;
+    }
+
+    /**
+     * Write count, mean, p50, p90, p99 and max of every histogram as one line.
+     *
+     * @param writer the writer, it is not closed
+     * @throws IOException if the writer failed
+     */
+    public void write(final Writer writer) throws IOException {
+        writer.write("name,count,mean,p50,p90,p99,max\n");
+
+        for (final Histogram histogram : histograms) {
+            writeRow(writer, histogram);
+        }
+    }
+
+    /**
+     * Write count, mean, p50, p90, p99 and max of a histogram as one line.
+     */
+    static void writeRow(final Writer writer, final Histogram histogram) throws IOException {
+        writer.write(histogram.getName() + ","
+                + histogram.getCount() + ","
+                + Math.round(histogram.getMean()) + ","
+                + histogram.getValueAtPercentile(50) + ","
+                + histogram.getValueAtPercentile(90) + ","
+                + histogram.getValueAtPercentile(99) + ","
+                + histogram.getMax() + "\n");
+    }
+
+    /**
+     * Gets interval between two frames.
+     *
+     * @return the frame time histogram in nanoseconds
+     */
+    public Histogram getFrameNanos() {
+        return frameNanos;
+    }
+
+    /**
+     * Gets time the simulation needed to advance to a frame.
+     *
+     * @return the physics time histogram in nanoseconds
+     */
+    public Histogram getPhysicsNanos() {
+        return physicsNanos;
+    }
+
+    /**
+     * Gets time needed to draw a frame.
+     *
+     * @return the draw time histogram in nanoseconds
+     */
+    public Histogram getDrawNanos() {
+        return drawNanos;
+    }
+
+    /**
+     * Gets solver iterations of the last step of each frame.
+     *
+     * @return the solver iterations histogram
+     */
+    public Histogram getSolverIterations() {
+        return solverIterations;
+    }
+
+    /**
+     * Gets number of balls on the board in each frame.
+     *
+     * @return the particle count histogram
+     */
+    public Histogram getParticleCount() {
+        return particleCount;
+    }
+
+    /**
+     * Gets input messages per second.
+     *
+     * @return the input rate histogram
+     */
+    public Histogram getInputRate() {
+        return inputRate;
+    }
+}
@@ -0,0 +1,311 @@
+package de.othaw.nicolasproske.mauc.stats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.othaw.nicolasproske.mauc.engine.stats.Histogram;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Follows every input message from its arrival to the first frame which shows its effect.
+ * A trace passes three stages, each run by one thread:
+ * <ol>
+ * <li>received: the input thread, e.g. the MQTT callback, records the arrival</li>
+ * <li>consumed: the simulation thread marks the traces whose sample was read by a step,
+ * which happens a jitter buffer delay after the arrival</li>
+ * <li>presented: the view marks the traces whose frame it draws</li>
+ * </ol>
+ * The traces move through a ring with one cursor per stage, so no stage waits for another
+ * or allocates. If the ring is full, new messages are not traced. Traces older than
+ * {@link #MAX_AGE_NANOS} are discarded when they are presented, e.g. if the frames were
+ * suspended while the input did not change.
+ * <p>
+ * The time from sending to arrival is measured against the wall clock of the sender, so it
+ * is only meaningful if both clocks are synchronized, negative values are recorded as zero.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class LatencyTracer {
+
+    /**
+     * Traces older than this when presented are discarded.
+     */
+    public final static long MAX_AGE_NANOS = 1_000_000_000L;
+
+    /**
+     * Sender timestamp of messages without one.
+     */
+    public final static long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    // Number of traces which may be on their way, a power of two
+    private final static int CAPACITY = 256;
+    private final static int MASK = CAPACITY - 1;
+
+    // Microseconds since the epoch at the start of the monotonic clock
+    private final long epochOffsetMicros = System.currentTimeMillis() * 1000L - System.nanoTime() / 1000L;
+
+    // Written by the stage which fills them, read by the later stages
+    private final int[] sequences = new int[CAPACITY];
+    private final long[] senderTimestamps = new long[CAPACITY];
+    private final long[] receiveTimes = new long[CAPACITY];
+    private final long[] inputTimes = new long[CAPACITY];
+    private final long[] consumeTimes = new long[CAPACITY];
+    private final long[] frameTimes = new long[CAPACITY];
+
+    // Number of traces which passed each stage
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong presented = new AtomicLong();
+
+    private final Histogram networkNanos = new Histogram("input_network_ns");
+    private final Histogram consumeNanos = new Histogram("input_receive_to_consume_ns");
+    private final Histogram presentNanos = new Histogram("input_consume_to_present_ns");
+    private final Histogram totalNanos = new Histogram("input_receive_to_present_ns");
+
+    private final Histogram[] histograms = {networkNanos, consumeNanos, presentNanos, totalNanos};
+
+    private final AtomicLong untraced = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    // Latest presented trace, only touched by the presenting thread
+    private long lastPresented;
+    private int lastSequence;
+    private long lastSenderTimestamp;
+    private long lastNetworkNanos;
+    private long lastConsumeNanos;
+    private long lastPresentNanos;
+
+    /**
+     * Record the arrival of a message. Must only be called by one thread at a time.
+     *
+     * @param sequence        the sequence number of the sender
+     * @param senderTimestamp the timestamp of the sender in microseconds since the epoch, or {@link #NO_TIMESTAMP}
+     * @param receiveTime     the monotonic arrival time in nanoseconds
+     * @param inputTime       the monotonic time at which the sample was placed in the input channel
+     */
+    public void receive(final int sequence, final long senderTimestamp, final long receiveTime, final long inputTime) {
+        final long index = received.get();
+        if (index - presented.get() >= CAPACITY) {
+            untraced.incrementAndGet();
+            return;
+        }
+
+        final int slot = (int) (index & MASK);
+        sequences[slot] = sequence;
+        senderTimestamps[slot] = senderTimestamp;
+        receiveTimes[slot] = receiveTime;
+        inputTimes[slot] = inputTime;
+
+        received.set(index + 1);
+    }
+
+    /**
+     * Mark the messages as consumed whose sample lies before the input time of the last step.
+     * Must only be called by the simulation thread, after it published the frame.
+     *
+     * @param inputTime the time at which the last step read the input channel
+     * @param frameTime the timestamp of the published snapshot
+     * @param now       the current monotonic time in nanoseconds
+     */
+    public void consume(final long inputTime, final long frameTime, final long now) {
+        final long end = received.get();
+        long index = consumed.get();
+
+        // The samples were placed in order, so the first one after the input time ends the search
+        while (index < end) {
+            final int slot = (int) (index & MASK);
+            if (inputTimes[slot] > inputTime) {
+                break;
+            }
+            consumeTimes[slot] = now;
+            frameTimes[slot] = frameTime;
+            index++;
+        }
+
+        consumed.set(index);
+    }
+
+    /**
+     * Mark the consumed messages as presented whose frame is drawn now and record their latencies.
+     * Must only be called by the thread which draws the frames.
+     *
+     * @param frameTime the timestamp of the drawn snapshot
+     * @param now       the current monotonic time in nanoseconds
+     * @return the number of presented traces
+     */
+    public int present(final long frameTime, final long now) {
+        final long end = consumed.get();
+        final long start = presented.get();
+        long index = start;
+
+        while (index < end) {
+            final int slot = (int) (index & MASK);
+            if (frameTimes[slot] > frameTime) {
+                break;
+            }
+            index++;
+
+            final long receiveTime = receiveTimes[slot];
+            if (now - receiveTime > MAX_AGE_NANOS) {
+                expired.incrementAndGet();
+                continue;
+            }
+
+            final long consumeTime = consumeTimes[slot];
+            final long senderTimestamp = senderTimestamps[slot];
+
+            lastNetworkNanos = senderTimestamp == NO_TIMESTAMP
+                    ? 0L : (epochOffsetMicros + receiveTime / 1000L - senderTimestamp) * 1000L;
+            lastConsumeNanos = consumeTime - receiveTime;
+            lastPresentNanos = now - consumeTime;
+            lastSequence = sequences[slot];
+            lastSenderTimestamp = senderTimestamp;
+            lastPresented++;
+
+            if (senderTimestamp != NO_TIMESTAMP) {
+                networkNanos.record(lastNetworkNanos);
+            }
+            consumeNanos.record(lastConsumeNanos);
+            presentNanos.record(lastPresentNanos);
+            totalNanos.record(now - receiveTime);
+        }
+
+        presented.set(index);
+        return (int) (index - start);
+    }
+
+    /**
+     * Remove all recorded latencies. Traces on their way are kept.
+     */
+    public void reset() {
+        for (final Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        untraced.set(0L);
+        expired.set(0L);
+    }
+
+    /**
+     * Write one line per histogram in the format of {@link FrameStats#write(Writer)}, without header.
+     *
+     * @param writer the writer, it is not closed
+     * @throws IOException if the writer failed
+     */
+    public void write(final Writer writer) throws IOException {
+        for (final Histogram histogram : histograms) {
+            FrameStats.writeRow(writer, histogram);
+        }
+    }
+
+    /**
+     * Gets time from sending to arrival, by the clock of the sender.
+     *
+     * @return the network latency histogram in nanoseconds
+     */
+    public Histogram getNetworkNanos() {
+        return networkNanos;
+    }
+
+    /**
+     * Gets time from arrival until a step read the sample, including the jitter buffer delay.
+     *
+     * @return the consume latency histogram in nanoseconds
+     */
+    public Histogram getConsumeNanos() {
+        return consumeNanos;
+    }
+
+    /**
+     * Gets time from the step which read the sample until its frame was drawn.
+     *
+     * @return the present latency histogram in nanoseconds
+     */
+    public Histogram getPresentNanos() {
+        return presentNanos;
+    }
+
+    /**
+     * Gets time from arrival until the frame was drawn.
+     *
+     * @return the total latency histogram in nanoseconds
+     */
+    public Histogram getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Gets number of messages which were not traced because too many traces were on their way.
+     *
+     * @return the untraced count
+     */
+    public long getUntracedCount() {
+        return untraced.get();
+    }
+
+    /**
+     * Gets number of traces discarded because they were too old when presented.
+     *
+     * @return the expired count
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    /**
+     * Gets number of presented traces so far. Only valid on the presenting thread,
+     * like the other values of the latest trace.
+     *
+     * @return the presented count
+     */
+    public long getLastPresented() {
+        return lastPresented;
+    }
+
+    /**
+     * Gets sequence number of the latest presented message.
+     *
+     * @return the sequence number
+     */
+    public int getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Gets sender timestamp of the latest presented message.
+     *
+     * @return the timestamp in microseconds since the epoch, or {@link #NO_TIMESTAMP}
+     */
+    public long getLastSenderTimestamp() {
+        return lastSenderTimestamp;
+    }
+
+    /**
+     * Gets time from sending to arrival of the latest presented message.
+     *
+     * @return the time in nanoseconds, 0 without sender timestamp
+     */
+    public long getLastNetworkNanos() {
+        return lastNetworkNanos;
+    }
+
+    /**
+     * Gets time from arrival to consumption of the latest presented message.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getLastConsumeNanos() {
+        return lastConsumeNanos;
+    }
+
+    /**
+     * Gets time from consumption to presentation of the latest presented message.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getLastPresentNanos() {
+        return lastPresentNanos;
+    }
+}
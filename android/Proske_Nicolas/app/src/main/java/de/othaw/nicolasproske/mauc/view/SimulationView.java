@@ -2,45 +2,130 @@ package de.othaw.nicolasproske.mauc.view;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.graphics.drawable.Drawable;
 import android.util.DisplayMetrics;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.widget.FrameLayout;
 
 import androidx.annotation.NonNull;
 
 import de.othaw.nicolasproske.mauc.MainActivity;
+import de.othaw.nicolasproske.mauc.R;
+import de.othaw.nicolasproske.mauc.engine.InputSample;
+import de.othaw.nicolasproske.mauc.engine.Level;
+import de.othaw.nicolasproske.mauc.engine.ParticleSnapshot;
+import de.othaw.nicolasproske.mauc.manager.ParticleManager;
+import de.othaw.nicolasproske.mauc.object.Particle;
+import de.othaw.nicolasproske.mauc.stats.FrameStats;
+import de.othaw.nicolasproske.mauc.engine.stats.Histogram;
+import de.othaw.nicolasproske.mauc.stats.LatencyTracer;
 
 /**
  * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Displays the board. The balls are either shown as one child view per ball, which are
+ * moved every frame, or drawn by this view itself in a single pass over the snapshot
+ * with one shared ball bitmap. Drawing the same bitmap over and over lets the renderer
+ * batch all balls into few draw calls, without one render node and layer per ball.
+ * <p>
+ * Frames are scheduled by the {@link Choreographer} between {@link #startSimulation()} and
+ * {@link #stopSimulation()}. Each vsync hands its frame time to the simulation thread and
+ * redraws the view, no frames are drawn while the simulation is stopped.
+ * <p>
+ * If no ball moved visibly and the input did not change for a while, the view stops
+ * requesting frames, which also lets the simulation thread sleep. New input, dragging
+ * or resizing the hole request frames again.
+ * <p>
+ * The board, the hole and the level do not change from frame to frame. They are rendered
+ * once into an offscreen layer of the size of the view, which is only rendered again when
+ * the hole is moved or resized, the level changes or the view is resized.
+ * <p>
+ * Frame interval, draw time and particle count are recorded in the {@link FrameStats} of
+ * the particle manager, an optional overlay shows their percentiles. Every drawn frame
+ * presents the input messages its snapshot consumed to the {@link LatencyTracer}.
  *
  * @author Nicolas Proske
  * @author googlearchive (The Android Open Source Project)
  * @version 20.06.2020
  */
 @SuppressLint("ViewConstructor")
-public final class SimulationView extends FrameLayout implements SensorEventListener {
+public final class SimulationView extends FrameLayout {
+
+    /**
+     * The way the balls are rendered.
+     */
+    public enum RenderMode {
+        /**
+         * One child view per ball.
+         */
+        VIEWS,
+        /**
+         * All balls drawn on the canvas of this view.
+         */
+        CANVAS
+    }
+
+    // Frames in a row without visible movement or new input after which no more frames are requested
+    private final static int IDLE_FRAMES = 30;
+
+    // Movement of a ball in pixels which is not visible
+    private final static float IDLE_PIXELS = 0.25f;
+
+    // Interval in which the text of the overlay is updated
+    private final static long OVERLAY_INTERVAL_NANOS = 500_000_000L;
 
     // Diameter of the balls in meters
     private final static float S_BALL_DIAMETER = 0.0025f;
     private final MainActivity mainActivity;
     private final static float S_BALL_DIAMETER_2 = S_BALL_DIAMETER * S_BALL_DIAMETER;
-    // Last update time
-    private long lastTimeStamp;
-
-    // Current count of scored balls
-    private int score = 0;
 
     // Drawed circle where the balls have to get in
     private Paint paintCircle;
     private float paintCircleX, paintCircleY;
     private float paintCircleRadius = 80f;
 
+    // Obstacles of the level
+    private Paint paintObstacle;
+
+    // Static layer with board, hole and level, rendered again only if one of them changed
+    private Drawable board;
+    private Bitmap staticLayer;
+    private Canvas staticCanvas;
+    private boolean staticLayerDirty = true;
+    private Level staticLevel;
+
+    // Current render mode and the bitmap shared by all balls in the canvas mode
+    private RenderMode renderMode;
+    private Bitmap ballBitmap;
+
+    // Called on every vsync while the simulation is running
+    private final Choreographer.FrameCallback frameCallback = this::doFrame;
+    private boolean framesRunning;
+
+    // Idle detection: positions and input of the last drawn frame and number of idle frames in a row
+    private final Runnable resumeFrames = this::resumeFrames;
+    private volatile boolean framesSuspended;
+    private int idleFrames;
+    private float[] lastPixelX = new float[0];
+    private float[] lastPixelY = new float[0];
+    private long lastSnapshotTimestamp;
+    private float lastInputX, lastInputY;
+    private final InputSample latestInput = new InputSample();
+
+    // Instrumentation: time of the last frame and the text of the overlay
+    private long lastFrameTime;
+    private boolean overlayEnabled;
+    private Paint paintOverlay;
+    private final StringBuilder overlayText = new StringBuilder();
+    private String[] overlayLines = new String[0];
+    private long overlayUpdated;
+
     // Width and height of the ball
     private int particleWidth;
     private int particleHeight;
@@ -64,15 +149,32 @@ public final class SimulationView extends FrameLayout implements SensorEventList
         super(context);
         this.mainActivity = mainActivity;
 
+        // The view draws its board itself, there is no background which would make it draw
+        setWillNotDraw(false);
+
         // Set values of circle
         paintCircle = new Paint();
         paintCircle.setAntiAlias(true); // Let the circle look smoother
         paintCircle.setColor(Color.parseColor("#2b2b2b")); // Color of the circle
 
+        // Set values of obstacles, walls are drawn as lines with round ends
+        paintObstacle = new Paint();
+        paintObstacle.setAntiAlias(true);
+        paintObstacle.setColor(Color.parseColor("#5d4037"));
+        paintObstacle.setStrokeCap(Paint.Cap.ROUND);
+
+        // Set values of the debug overlay
+        paintOverlay = new Paint();
+        paintOverlay.setAntiAlias(true);
+        paintOverlay.setColor(Color.WHITE);
+        paintOverlay.setShadowLayer(2f, 1f, 1f, Color.BLACK);
+
         // Display values of current phone
         final DisplayMetrics metrics = new DisplayMetrics();
         mainActivity.getWindowManager().getDefaultDisplay().getMetrics(metrics);
 
+        paintOverlay.setTextSize(14f * metrics.density);
+
         final float dpiX = metrics.xdpi;
         final float dpiY = metrics.ydpi;
 
@@ -86,10 +188,187 @@ public final class SimulationView extends FrameLayout implements SensorEventList
     }
 
     /**
-     * Stop simulation.
+     * Sets render mode. Switching to the canvas mode removes the views of the balls,
+     * switching back creates them again.
+     *
+     * @param renderMode the render mode
+     */
+    public void setRenderMode(final RenderMode renderMode) {
+        if (renderMode == this.renderMode) {
+            return;
+        }
+        this.renderMode = renderMode;
+
+        final ParticleManager particleManager = mainActivity.getParticleManager();
+
+        if (renderMode == RenderMode.CANVAS) {
+            particleManager.removeBallViews();
+
+            // Scale the ball once, so drawing it needs no filtering
+            if (ballBitmap == null) {
+                final Bitmap bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.ball);
+                ballBitmap = Bitmap.createScaledBitmap(bitmap, particleWidth, particleHeight, true);
+                if (ballBitmap != bitmap) {
+                    bitmap.recycle();
+                }
+            }
+        } else {
+            particleManager.createBallViews();
+        }
+
+        invalidate();
+    }
+
+    /**
+     * Checks if the debug overlay is drawn.
+     *
+     * @return true if the overlay is enabled
+     */
+    public boolean isOverlayEnabled() {
+        return overlayEnabled;
+    }
+
+    /**
+     * Sets whether the percentiles of the frame stats are drawn on top of the board.
+     *
+     * @param overlayEnabled true to enable the overlay
+     */
+    public void setOverlayEnabled(final boolean overlayEnabled) {
+        this.overlayEnabled = overlayEnabled;
+        overlayUpdated = 0L;
+        invalidate();
+    }
+
+    /**
+     * Gets render mode.
+     *
+     * @return the render mode
+     */
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
+
+    /**
+     * Start simulation and the frame callbacks.
+     */
+    public void startSimulation() {
+        mainActivity.getParticleManager().start();
+
+        if (!framesRunning) {
+            framesRunning = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    /**
+     * Stop simulation and the frame callbacks.
      */
     public void stopSimulation() {
-        mainActivity.getSensorManager().unregisterListener(this);
+        framesRunning = false;
+        framesSuspended = false;
+        lastFrameTime = 0L;
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+
+        mainActivity.getParticleManager().stop();
+    }
+
+    /**
+     * Called on every vsync. Lets the simulation advance to the frame time,
+     * redraws the view and waits for the next vsync.
+     *
+     * @param frameTimeNanos the time of the frame
+     */
+    private void doFrame(final long frameTimeNanos) {
+        if (!framesRunning) {
+            return;
+        }
+
+        // Interval to the previous frame, not across a pause of the frames
+        final FrameStats frameStats = mainActivity.getParticleManager().getFrameStats();
+        if (lastFrameTime != 0L) {
+            frameStats.getFrameNanos().record(frameTimeNanos - lastFrameTime);
+        }
+        lastFrameTime = frameTimeNanos;
+        frameStats.sampleInputRate(frameTimeNanos);
+
+        // Nothing moves, wait for new input instead of the next vsync
+        if (idleFrames >= IDLE_FRAMES) {
+            framesSuspended = true;
+            lastFrameTime = 0L;
+            return;
+        }
+
+        mainActivity.getParticleManager().requestStep(frameTimeNanos);
+        invalidate();
+
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    /**
+     * Request frames again after they were suspended because nothing moved.
+     * Can be called from any thread, e.g. when new input arrives.
+     */
+    public void wakeUp() {
+        if (framesSuspended) {
+            post(resumeFrames);
+        }
+    }
+
+    private void resumeFrames() {
+        idleFrames = 0;
+
+        if (framesRunning && framesSuspended) {
+            framesSuspended = false;
+
+            // Don't simulate the time without frames
+            mainActivity.getParticleManager().requestClockReset();
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    /**
+     * Count the frames in a row in which no ball moved more than a fraction of a pixel
+     * and the input stayed the same.
+     */
+    private void updateIdleFrames(final ParticleSnapshot snapshot) {
+        // The simulation did not publish anything new since the last frame
+        if (snapshot.getTimestamp() == lastSnapshotTimestamp) {
+            return;
+        }
+        lastSnapshotTimestamp = snapshot.getTimestamp();
+
+        final int particleCount = snapshot.size();
+        boolean moved = false;
+
+        if (lastPixelX.length < particleCount) {
+            lastPixelX = new float[particleCount];
+            lastPixelY = new float[particleCount];
+            moved = true;
+        }
+
+        for (int i = 0; i < particleCount; i++) {
+            // Captured balls are marked with NaN
+            final float x = snapshot.isAlive(i) ? toPixelX(snapshot.getPosX(i)) : Float.NaN;
+            final float y = snapshot.isAlive(i) ? toPixelY(snapshot.getPosY(i)) : Float.NaN;
+
+            if (Float.isNaN(x) != Float.isNaN(lastPixelX[i])
+                    || Math.abs(x - lastPixelX[i]) > IDLE_PIXELS || Math.abs(y - lastPixelY[i]) > IDLE_PIXELS) {
+                moved = true;
+            }
+            lastPixelX[i] = x;
+            lastPixelY[i] = y;
+        }
+
+        final boolean hasInput = mainActivity.getParticleManager().getInputChannel().readLatest(latestInput);
+        final float inputX = hasInput ? latestInput.getX() : 0f;
+        final float inputY = hasInput ? latestInput.getY() : 0f;
+        if (inputX != lastInputX || inputY != lastInputY) {
+            moved = true;
+            lastInputX = inputX;
+            lastInputY = inputY;
+        }
+
+        idleFrames = moved ? 0 : idleFrames + 1;
     }
 
     @Override
@@ -99,64 +378,233 @@ public final class SimulationView extends FrameLayout implements SensorEventList
         originY = (height - particleHeight) * 0.5f;
         horizontalBound = ((width / metersToPixelsX - S_BALL_DIAMETER) * 0.5f);
         verticalBound = ((height / metersToPixelsY - S_BALL_DIAMETER) * 0.5f);
-    }
 
-    @Override
-    public void onSensorChanged(final SensorEvent event) {
+        mainActivity.getParticleManager().getSimulation().setBounds(horizontalBound, verticalBound);
+
+        // If current circle coordinated aren't set, set them in the middle of the screen
+        if (paintCircleX == 0f || paintCircleY == 0f) {
+            paintCircleX = width / 2f;
+            paintCircleY = height / 2f;
+        }
+        updateHole();
 
+        // The board is opaque, so the layer needs no alpha channel
+        if (staticLayer != null) {
+            staticLayer.recycle();
+        }
+        staticLayer = Bitmap.createBitmap(Math.max(1, width), Math.max(1, height), Bitmap.Config.RGB_565);
+        staticCanvas = new Canvas(staticLayer);
+        staticLayerDirty = true;
     }
 
-    @Override
-    public void onAccuracyChanged(final Sensor sensor, final int i) {
+    /**
+     * Sets the drawable of the board below the balls.
+     *
+     * @param resId the resource id of the drawable
+     */
+    public void setBoardResource(final int resId) {
+        board = getContext().getDrawable(resId);
+        staticLayerDirty = true;
+        invalidate();
+    }
+
+    /**
+     * Render board, hole and level into the static layer.
+     */
+    private void renderStaticLayer(final Level level) {
+        if (board != null) {
+            board.setBounds(0, 0, staticLayer.getWidth(), staticLayer.getHeight());
+            board.draw(staticCanvas);
+        } else {
+            staticCanvas.drawColor(Color.BLACK);
+        }
 
+        // Draw circle where balls have to get in
+        staticCanvas.drawCircle(paintCircleX, paintCircleY, paintCircleRadius, paintCircle);
+
+        // Draw holes and obstacles of the level
+        drawLevel(staticCanvas, level);
+
+        staticLevel = level;
+        staticLayerDirty = false;
+    }
+
+    /**
+     * Hand the circle over to the simulation, converted to the coordinate system of the balls.
+     * Like the shapes of the level, the circle is matched with the centers of the balls, which
+     * are drawn from their top left corner.
+     */
+    private void updateHole() {
+        mainActivity.getParticleManager().getSimulation().setHole(
+                (paintCircleX - particleWidth * 0.5f - originX) / metersToPixelsX,
+                (originY + particleHeight * 0.5f - paintCircleY) / metersToPixelsY,
+                paintCircleRadius / metersToPixelsX);
+
+        // The hole is part of the static layer
+        staticLayerDirty = true;
     }
 
     @Override
     protected void onDraw(final Canvas canvas) {
-        /*
-         * Compute the new position of our object, based on accelerometer
-         * data and present time.
-         */
-        final long now = System.currentTimeMillis();
+        final long start = System.nanoTime();
+
+        // Get the latest positions published by the simulation thread
+        final ParticleManager particleManager = mainActivity.getParticleManager();
+        final ParticleSnapshot snapshot = particleManager.getSnapshots().acquire();
+        updateIdleFrames(snapshot);
+
+        // Draw board, hole and level in one go, rendering them again only if they changed
+        if (staticLayer != null) {
+            final Level level = particleManager.getSimulation().getLevel();
+            if (staticLayerDirty || level != staticLevel) {
+                renderStaticLayer(level);
+            }
+            canvas.drawBitmap(staticLayer, 0f, 0f, null);
+        }
+
+        if (renderMode == RenderMode.CANVAS) {
+            drawBalls(canvas, snapshot);
+        } else if (renderMode == RenderMode.VIEWS) {
+            moveBalls(particleManager, snapshot);
+        }
 
-        // Get mouse acceleration
-        final float sx = mainActivity.getMouseXAcceleration();
-        final float sy = mainActivity.getMouseYAcceleration();
+        final long end = System.nanoTime();
+        final FrameStats frameStats = particleManager.getFrameStats();
+        frameStats.getDrawNanos().record(end - start);
+        frameStats.getParticleCount().record(particleManager.getParticleCount());
 
-        // Update balls with current timestamp and given mouse acceleration
-        mainActivity.getParticleManager().update(sx, sy, now);
+        // The input which reached this snapshot is on screen now
+        final LatencyTracer latencyTracer = particleManager.getLatencyTracer();
+        latencyTracer.present(snapshot.getTimestamp(), end);
+        mainActivity.getMqttManager().publishDiagnostics(latencyTracer, end);
 
-        final float xc = originX;
-        final float yc = originY;
-        final float xs = metersToPixelsX;
-        final float ys = metersToPixelsY;
+        if (overlayEnabled) {
+            drawOverlay(canvas, frameStats, start);
+        }
+    }
+
+    /**
+     * Draw the percentiles of the frame stats in the top left corner.
+     * The text is only updated every few hundred milliseconds, so the overlay itself costs little.
+     */
+    private void drawOverlay(final Canvas canvas, final FrameStats frameStats, final long timestamp) {
+        if (timestamp - overlayUpdated >= OVERLAY_INTERVAL_NANOS) {
+            overlayUpdated = timestamp;
+            overlayLines = new String[]{
+                    formatMillis("Frame", frameStats.getFrameNanos()),
+                    formatMillis("Physik", frameStats.getPhysicsNanos()),
+                    formatMillis("Zeichnen", frameStats.getDrawNanos()),
+                    formatCount("Iterationen", frameStats.getSolverIterations()),
+                    formatCount("Bälle", frameStats.getParticleCount()),
+                    formatCount("Eingaben/s", frameStats.getInputRate()),
+                    formatMillis("Latenz", mainActivity.getParticleManager().getLatencyTracer().getTotalNanos())
+            };
+        }
+
+        final float lineHeight = paintOverlay.getTextSize() * 1.25f;
+        for (int i = 0; i < overlayLines.length; i++) {
+            canvas.drawText(overlayLines[i], lineHeight * 0.5f, lineHeight * (i + 1), paintOverlay);
+        }
+    }
+
+    private String formatMillis(final String label, final Histogram histogram) {
+        overlayText.setLength(0);
+        overlayText.append(label).append(": p50 ");
+        appendMillis(histogram.getValueAtPercentile(50));
+        overlayText.append(" p99 ");
+        appendMillis(histogram.getValueAtPercentile(99));
+        overlayText.append(" max ");
+        appendMillis(histogram.getMax());
+        overlayText.append(" ms");
+        return overlayText.toString();
+    }
+
+    private void appendMillis(final long nanos) {
+        overlayText.append(nanos / 1_000_000L).append('.').append(nanos / 100_000L % 10L);
+    }
+
+    private String formatCount(final String label, final Histogram histogram) {
+        overlayText.setLength(0);
+        overlayText.append(label)
+                .append(": p50 ").append(histogram.getValueAtPercentile(50))
+                .append(" p99 ").append(histogram.getValueAtPercentile(99))
+                .append(" max ").append(histogram.getMax());
+        return overlayText.toString();
+    }
+
+    /**
+     * Draw all balls which are still on the board with the shared ball bitmap.
+     */
+    private void drawBalls(final Canvas canvas, final ParticleSnapshot snapshot) {
+        final int particleCount = snapshot.size();
+
+        for (int i = 0; i < particleCount; i++) {
+            if (snapshot.isAlive(i)) {
+                canvas.drawBitmap(ballBitmap, toPixelX(snapshot.getPosX(i)), toPixelY(snapshot.getPosY(i)), null);
+            }
+        }
+    }
 
-        final int particleCount = mainActivity.getParticleManager().getParticleCount();
+    /**
+     * Move the views of the balls to the positions of the snapshot.
+     */
+    private void moveBalls(final ParticleManager particleManager, final ParticleSnapshot snapshot) {
+        final int particleCount = snapshot.size();
 
         for (int i = 0; i < particleCount; i++) {
+            final Particle ball = particleManager.getBall(i);
+
+            // Hide balls which were captured by the circle, the view is reused on respawn
+            if (!snapshot.isAlive(i)) {
+                if (ball.getVisibility() != INVISIBLE) {
+                    ball.setVisibility(INVISIBLE);
+                }
+                continue;
+            } else if (ball.getVisibility() != VISIBLE) {
+                ball.setVisibility(VISIBLE);
+            }
+
             /*
              * We transform the canvas so that the coordinate system matches
              * the sensors coordinate system with the origin in the center
              * of the screen and the unit is the meter.
              */
-            final float x = xc + mainActivity.getParticleManager().getPosX(i) * xs;
-            final float y = yc - mainActivity.getParticleManager().getPosY(i) * ys;
-
-            mainActivity.getParticleManager().getBalls().get(i).setTranslationX(x);
-            mainActivity.getParticleManager().getBalls().get(i).setTranslationY(y);
+            ball.setTranslationX(toPixelX(snapshot.getPosX(i)));
+            ball.setTranslationY(toPixelY(snapshot.getPosY(i)));
         }
+    }
 
-        // If current circle coordinated aren't set, set them in the middle of the screen
-        if (paintCircleX == 0f || paintCircleY == 0f) {
-            paintCircleX = getWidth() / 2f;
-            paintCircleY = getHeight() / 2f;
+    /**
+     * Draw the holes and obstacles of a level, converted from the relative level units to pixels.
+     */
+    private void drawLevel(final Canvas canvas, final Level level) {
+        final float scale = Level.getScale(horizontalBound, verticalBound) * metersToPixelsX;
+
+        // Shapes are centered on the ball positions, balls are drawn from their top left corner
+        final float offsetX = particleWidth * 0.5f;
+        final float offsetY = particleHeight * 0.5f;
+
+        for (int k = 0; k < level.getHoleCount(); k++) {
+            canvas.drawCircle(
+                    toPixelX(level.getHoleX(k) * horizontalBound) + offsetX,
+                    toPixelY(level.getHoleY(k) * verticalBound) + offsetY,
+                    level.getHoleRadius(k) * scale, paintCircle);
         }
 
-        // Draw circle where balls have to get in
-        canvas.drawCircle(paintCircleX, paintCircleY, paintCircleRadius, paintCircle);
-
-        // Make sure to redraw
-        postInvalidate();
+        for (int k = 0; k < level.getObstacleCount(); k++) {
+            final float x1 = toPixelX(level.getObstacleX1(k) * horizontalBound) + offsetX;
+            final float y1 = toPixelY(level.getObstacleY1(k) * verticalBound) + offsetY;
+            final float x2 = toPixelX(level.getObstacleX2(k) * horizontalBound) + offsetX;
+            final float y2 = toPixelY(level.getObstacleY2(k) * verticalBound) + offsetY;
+            final float radius = level.getObstacleRadius(k) * scale;
+
+            if (x1 == x2 && y1 == y2) {
+                canvas.drawCircle(x1, y1, radius, paintObstacle);
+            } else {
+                paintObstacle.setStrokeWidth(2f * radius);
+                canvas.drawLine(x1, y1, x2, y2, paintObstacle);
+            }
+        }
     }
 
     @SuppressLint("ClickableViewAccessibility")
@@ -186,6 +634,8 @@ public final class SimulationView extends FrameLayout implements SensorEventList
                     // Update positions of circle to cursor position
                     paintCircleX = x;
                     paintCircleY = y;
+                    updateHole();
+                    resumeFrames();
 
                     // Make sure to redraw
                     postInvalidate();
@@ -198,6 +648,26 @@ public final class SimulationView extends FrameLayout implements SensorEventList
     }
 
 
+    /**
+     * Convert a relative x position in meters to a screen x coordinate.
+     *
+     * @param posX the relative x position
+     * @return the x coordinate in pixels
+     */
+    public float toPixelX(final float posX) {
+        return originX + posX * metersToPixelsX;
+    }
+
+    /**
+     * Convert a relative y position in meters to a screen y coordinate.
+     *
+     * @param posY the relative y position
+     * @return the y coordinate in pixels
+     */
+    public float toPixelY(final float posY) {
+        return originY - posY * metersToPixelsY;
+    }
+
     /**
      * Gets ball diameter.
      *
@@ -234,24 +704,6 @@ public final class SimulationView extends FrameLayout implements SensorEventList
         return particleHeight;
     }
 
-    /**
-     * Gets last time stamp.
-     *
-     * @return the last time stamp
-     */
-    public long getLastTimeStamp() {
-        return lastTimeStamp;
-    }
-
-    /**
-     * Sets last time stamp.
-     *
-     * @param lastTimeStamp the last time stamp
-     */
-    public void setLastTimeStamp(final long lastTimeStamp) {
-        this.lastTimeStamp = lastTimeStamp;
-    }
-
     /**
      * Gets horizontal bound.
      *
@@ -286,6 +738,8 @@ public final class SimulationView extends FrameLayout implements SensorEventList
      */
     public void setPaintCircleRadius(float paintCircleRadius) {
         this.paintCircleRadius = paintCircleRadius;
+        updateHole();
+        resumeFrames();
     }
 
     /**
@@ -305,22 +759,4 @@ public final class SimulationView extends FrameLayout implements SensorEventList
     public float getPaintCircleY() {
         return paintCircleY;
     }
-
-    /**
-     * Gets current count of scored balls.
-     *
-     * @return the score
-     */
-    public int getScore() {
-        return score;
-    }
-
-    /**
-     * Sets current count of scored balls.
-     *
-     * @param score the score
-     */
-    public void setScore(int score) {
-        this.score = score;
-    }
 }
@@ -0,0 +1,126 @@
+package de.othaw.nicolasproske.mauc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import de.othaw.nicolasproske.mauc.engine.CollisionSolver;
+import de.othaw.nicolasproske.mauc.engine.Simulation;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Measures one step of the simulation: integration, capture, collision resolution
+ * and bounds. Balls are respawned after capture, so the particle count stays constant.
+ * <p>
+ * In the sparse layout the balls are scattered over a board where they cover about 5 %
+ * of the area, in the dense layout they are packed on a lattice slightly closer than
+ * their diameter, so every ball starts overlapping its neighbours.
+ * <p>
+ * Every configuration runs with the serial and the parallel collision solver, the latter
+ * on the common fork-join pool, so its gain only shows on a machine with several cores.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+
+    // Same ball size as on the device
+    private final static float BALL_DIAMETER = 0.0025f;
+
+    // Length of one step, as used by the app
+    private final static float STEP_SECONDS = Simulation.DEFAULT_STEP_NANOS / 1e9f;
+
+    // Fraction of the board covered by balls in the sparse layout
+    private final static float SPARSE_COVERAGE = 0.05f;
+
+    // Distance of neighbouring balls in the dense layout, relative to the diameter
+    private final static float DENSE_SPACING = 0.95f;
+
+    @Param({"15", "100", "1000", "10000", "100000"})
+    public int count;
+
+    @Param({"sparse", "dense"})
+    public String layout;
+
+    @Param({"SERIAL", "PARALLEL"})
+    public CollisionSolver.Mode solver;
+
+    private Simulation simulation;
+
+    // Tilt of the board, changes every step so the balls keep moving
+    private float sx, sy;
+    private int stepCount;
+
+    /**
+     * Build a new board for every iteration, so every iteration starts with the same layout.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final Random random = new Random(42L);
+        simulation = new Simulation(BALL_DIAMETER, count, random, new CollisionSolver());
+        simulation.setSolverMode(solver);
+        simulation.setRespawn(true);
+
+        if ("dense".equals(layout)) {
+            final int columns = (int) Math.ceil(Math.sqrt(count));
+            final float spacing = BALL_DIAMETER * DENSE_SPACING;
+            final float bound = columns * spacing * 0.5f;
+
+            // Leave a margin so the pile has some room to spread
+            simulation.setBounds(bound * 1.5f, bound * 1.5f);
+
+            for (int i = 0; i < count; i++) {
+                simulation.addParticle((i % columns) * spacing - bound, (i / columns) * spacing - bound);
+            }
+        } else {
+            final float area = count * BALL_DIAMETER * BALL_DIAMETER / SPARSE_COVERAGE;
+            final float bound = (float) Math.sqrt(area) * 0.5f;
+
+            simulation.setBounds(bound, bound);
+
+            for (int i = 0; i < count; i++) {
+                simulation.addParticle((random.nextFloat() * 2f - 1f) * bound, (random.nextFloat() * 2f - 1f) * bound);
+            }
+        }
+
+        // Small hole in a corner, so capture and respawn are part of the measurement
+        simulation.setHole(simulation.getHorizontalBound() * 0.9f, simulation.getVerticalBound() * 0.9f, BALL_DIAMETER * 2f);
+
+        stepCount = 0;
+    }
+
+    /**
+     * One step of the simulation.
+     *
+     * @return the simulation, so the step can't be eliminated
+     */
+    @Benchmark
+    public Simulation step() {
+        // Slowly rotate the tilt with the range the remote controller sends
+        final float angle = stepCount++ * 0.01f;
+        sx = (float) Math.cos(angle) * 4.905f;
+        sy = (float) Math.sin(angle) * 4.905f;
+
+        simulation.step(sx, sy, STEP_SECONDS);
+        return simulation;
+    }
+}
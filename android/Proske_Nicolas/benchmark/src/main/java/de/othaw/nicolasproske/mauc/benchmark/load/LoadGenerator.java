@@ -0,0 +1,390 @@
+package de.othaw.nicolasproske.mauc.benchmark.load;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.othaw.nicolasproske.mauc.engine.InputChannel;
+import de.othaw.nicolasproske.mauc.engine.JitterBuffer;
+import de.othaw.nicolasproske.mauc.engine.stats.Histogram;
+import de.othaw.nicolasproske.mauc.protocol.OutboundPublisher;
+import de.othaw.nicolasproske.mauc.protocol.TiltCodec;
+import de.othaw.nicolasproske.mauc.protocol.TiltReceiver;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Load test of the input path. Tilt messages are offered at a fixed rate, spread round-robin
+ * over several topics, to the {@link OutboundPublisher} of the app, and a subscriber handles
+ * them with the {@link TiltReceiver} of the app, which decodes and places them in a
+ * {@link JitterBuffer}. Both are real MQTT clients, by default connected to an in-process
+ * {@link StandInBroker}.
+ * <p>
+ * Every rate is reported on one line: offered, sent and received messages per second,
+ * messages lost on the way, dropped by the publisher queue, coalesced by key or dropped by
+ * the broker, gaps in the sequence numbers, receive cost, transit time and the resulting
+ * jitter delay.
+ * <p>
+ * Options: {@code --rates 100,1000,5000,10000}, {@code --topics 16}, {@code --seconds 5},
+ * {@code --queue 32} for the capacity of the publisher queue, {@code --keyed} to offer the
+ * messages with one key per topic, so a backlog is coalesced, {@code --text} to send "x,y"
+ * messages like the Python controller, and {@code --broker tcp://host:1883} to use an
+ * external broker instead.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class LoadGenerator {
+
+    private final static String TOPIC_PREFIX = "load/";
+
+    // Key of the keyed messages, one per topic
+    private final static String TILT_KEY = "tilt";
+
+    // Same timeout as in the app
+    private final static long PUBLISH_TIMEOUT_MILLIS = 5_000L;
+
+    // Time to wait for the last messages after the publisher stopped
+    private final static long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private final static long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // Same capacity as in the app
+    private final static int INPUT_CAPACITY = 256;
+
+    // Kept to hold the level, the clients would log every rejected message
+    private final static Logger PAHO_LOGGER = Logger.getLogger("org.eclipse.paho.client.mqttv3");
+
+    // Shared by sender and receiver, so the transit time doesn't depend on the resolution of the wall clock
+    private final static long EPOCH_OFFSET_MICROS = System.currentTimeMillis() * 1000L - System.nanoTime() / 1000L;
+
+    private final String broker;
+    private final int topics;
+    private final long durationNanos;
+    private final int queueCapacity;
+    private final boolean keyed;
+    private final boolean text;
+    private final StandInBroker standInBroker;
+
+    private LoadGenerator(final String broker, final int topics, final long durationNanos, final int queueCapacity,
+                          final boolean keyed, final boolean text, final StandInBroker standInBroker) {
+        this.broker = broker;
+        this.topics = topics;
+        this.durationNanos = durationNanos;
+        this.queueCapacity = queueCapacity;
+        this.keyed = keyed;
+        this.text = text;
+        this.standInBroker = standInBroker;
+    }
+
+    /**
+     * Run the load test.
+     *
+     * @param args the options
+     * @throws Exception if the clients could not connect
+     */
+    public static void main(final String[] args) throws Exception {
+        int[] rates = {100, 1_000, 5_000, 10_000};
+        int topics = 16;
+        double seconds = 5.0;
+        int queueCapacity = 32;
+        boolean keyed = false;
+        boolean text = false;
+        String broker = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rates":
+                    rates = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--topics":
+                    topics = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Double.parseDouble(args[++i]);
+                    break;
+                case "--queue":
+                    queueCapacity = Integer.parseInt(args[++i]);
+                    break;
+                case "--keyed":
+                    keyed = true;
+                    break;
+                case "--text":
+                    text = true;
+                    break;
+                case "--broker":
+                    broker = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        if (topics < 1 || seconds <= 0.0 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Topics, seconds and queue must be positive");
+        }
+
+        PAHO_LOGGER.setLevel(Level.SEVERE);
+
+        final StandInBroker standInBroker = broker == null ? new StandInBroker() : null;
+        try {
+            final LoadGenerator generator = new LoadGenerator(
+                    standInBroker != null ? standInBroker.getUri() : broker,
+                    topics, (long) (seconds * 1e9), queueCapacity, keyed, text, standInBroker);
+
+            System.out.println("Broker " + generator.broker + ", " + topics + " topics, "
+                    + seconds + " s per rate, queue " + queueCapacity + ", " + (keyed ? "keyed " : "")
+                    + (text ? "text" : "binary") + " messages");
+            System.out.println(String.format(Locale.ROOT, "%8s %9s %9s %9s %7s %7s %9s %8s %6s %9s %9s %9s %9s %8s",
+                    "rate", "offer/s", "sent/s", "recv/s", "lost", "q-drop", "coalesced", "brk-drop", "gaps",
+                    "rcv-mean", "rcv-p99", "trn-p50", "trn-p99", "delay"));
+
+            for (final int rate : rates) {
+                generator.run(rate);
+            }
+        } finally {
+            if (standInBroker != null) {
+                standInBroker.close();
+            }
+        }
+    }
+
+    /**
+     * Send at one rate and print the results.
+     */
+    private void run(final int rate) throws MqttException {
+        final Receiver receiver = new Receiver(topics);
+        final MqttAsyncClient subscriber = connect("load-sub");
+        final MqttAsyncClient client = connect("load-pub");
+        final long brokerDroppedBefore = standInBroker != null ? standInBroker.getDroppedCount() : 0L;
+
+        // Sends like the MQTTManager, without logging the delivery
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong lastSendTime = new AtomicLong();
+        final OutboundPublisher publisher = new OutboundPublisher(
+                (topic, payload, retained) -> {
+                    final IMqttDeliveryToken token = client.publish(topic, payload, 0, retained);
+                    return () -> {
+                        token.waitForCompletion(PUBLISH_TIMEOUT_MILLIS);
+                        lastSendTime.set(System.nanoTime());
+                    };
+                },
+                queueCapacity,
+                (topic, cause) -> {
+                    if (failures.getAndIncrement() == 0L) {
+                        System.err.println("Could not publish to " + topic + ": " + cause);
+                    }
+                });
+
+        try {
+            for (int i = 0; i < topics; i++) {
+                final int index = i;
+                // One listener per topic, so the topic needs no parsing on arrival
+                subscriber.subscribe(TOPIC_PREFIX + i, 0, null, null,
+                        (topic, message) -> receiver.messageArrived(index, message)).waitForCompletion();
+            }
+            publisher.start();
+
+            final String[] topicNames = new String[topics];
+            for (int i = 0; i < topics; i++) {
+                topicNames[i] = TOPIC_PREFIX + i;
+            }
+            final int[] sequences = new int[topics];
+
+            final long interval = 1_000_000_000L / rate;
+            final long start = System.nanoTime();
+            long deadline = start;
+            long offered = 0L;
+
+            while (deadline - start < durationNanos) {
+                final long wait = deadline - System.nanoTime();
+                if (wait > 0L) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+
+                // Slowly circling tilt, so the jitter buffer sees changing values
+                final int topic = (int) (offered % topics);
+                final float angle = offered * 0.01f;
+                final float x = 5f * (float) Math.cos(angle);
+                final float y = 5f * (float) Math.sin(angle);
+
+                final byte[] payload;
+                if (text) {
+                    payload = String.format(Locale.ROOT, "%.4f,%.4f", x, y).getBytes(StandardCharsets.US_ASCII);
+                } else {
+                    payload = new byte[TiltCodec.SIZE];
+                    TiltCodec.encode(payload, 0, sequences[topic]++, getTimeMicros(System.nanoTime()), x, y);
+                }
+
+                publisher.offer(topicNames[topic], keyed ? TILT_KEY : null, payload, false);
+
+                offered++;
+                deadline += interval;
+            }
+            final long offerNanos = System.nanoTime() - start;
+
+            // Wait until the queue is empty, the last batch is done and nothing arrives anymore
+            final long drainEnd = System.nanoTime() + DRAIN_NANOS;
+            long done = -1L;
+            while ((publisher.getPendingCount() > 0 || receiver.getReceived() < publisher.getSentCount()
+                    || done != publisher.getSentCount() + publisher.getDroppedCount())
+                    && System.nanoTime() < drainEnd) {
+                done = publisher.getSentCount() + publisher.getDroppedCount();
+                LockSupport.parkNanos(DRAIN_POLL_NANOS);
+            }
+            publisher.stop();
+
+            final long sent = publisher.getSentCount();
+            final long dropped = publisher.getDroppedCount();
+            final long received = receiver.getReceived();
+            final long sendNanos = Math.max(offerNanos, lastSendTime.get() - start);
+            final long receiveNanos = Math.max(offerNanos, receiver.getLastReceiveTime() - start);
+
+            final long brokerDropped = standInBroker != null ? standInBroker.getDroppedCount() - brokerDroppedBefore : 0L;
+
+            System.out.println(String.format(Locale.ROOT,
+                    "%8d %9.0f %9.0f %9.0f %7d %7d %9d %8s %6s %7.0fns %7dns %9s %9s %6.1fms",
+                    rate,
+                    offered * 1e9 / offerNanos,
+                    sent * 1e9 / sendNanos,
+                    received * 1e9 / receiveNanos,
+                    sent - received,
+                    dropped,
+                    offered - sent - dropped - publisher.getPendingCount(),
+                    standInBroker != null ? Long.toString(brokerDropped) : "-",
+                    text ? "-" : Long.toString(receiver.getGaps()),
+                    receiver.receiveTime.getMean(),
+                    receiver.receiveTime.getValueAtPercentile(99.0),
+                    formatTransit(receiver.transitTime, 50.0),
+                    formatTransit(receiver.transitTime, 99.0),
+                    receiver.tiltReceiver.getJitterBuffer().getDelay() / 1e6));
+
+            if (receiver.getInvalid() > 0L) {
+                System.out.println("         " + receiver.getInvalid() + " invalid messages");
+            }
+            if (failures.get() > 0L) {
+                System.out.println("         " + failures.get() + " failed batches");
+            }
+        } finally {
+            publisher.stop();
+            close(client);
+            close(subscriber);
+        }
+    }
+
+    /**
+     * Text messages have no timestamp, so there is no transit time.
+     */
+    private static String formatTransit(final Histogram histogram, final double percentile) {
+        return histogram.getCount() == 0L ? "-" : histogram.getValueAtPercentile(percentile) + "us";
+    }
+
+    /**
+     * Gets microseconds since the epoch with the resolution of the monotonic clock.
+     */
+    private static long getTimeMicros(final long nanoTime) {
+        return EPOCH_OFFSET_MICROS + nanoTime / 1000L;
+    }
+
+    private MqttAsyncClient connect(final String clientId) throws MqttException {
+        final MqttAsyncClient client = new MqttAsyncClient(broker, clientId + "-" + System.nanoTime(), new MemoryPersistence());
+
+        final MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        // Like the app, a whole batch of the publisher may be in flight
+        options.setMaxInflight(queueCapacity);
+        client.connect(options).waitForCompletion();
+        return client;
+    }
+
+    private static void close(final MqttAsyncClient client) {
+        try {
+            if (client.isConnected()) {
+                client.disconnect().waitForCompletion();
+            }
+            client.close();
+        } catch (final MqttException e) {
+            System.err.println("Could not close client " + client.getClientId() + ": " + e);
+        }
+    }
+
+    /**
+     * Handles the messages like the subscription of the MQTTManager. Only called by the
+     * callback thread of the client, the counters are read by the main thread.
+     */
+    private final static class Receiver {
+
+        private final TiltReceiver tiltReceiver = new TiltReceiver(new JitterBuffer(new InputChannel(INPUT_CAPACITY)));
+        private final Histogram receiveTime = new Histogram("receive");
+        private final Histogram transitTime = new Histogram("transit");
+
+        // Next expected sequence number of every topic
+        private final int[] nextSequences;
+
+        private volatile long received;
+        private volatile long invalid;
+        private volatile long gaps;
+        private volatile long lastReceiveTime;
+
+        private Receiver(final int topics) {
+            this.nextSequences = new int[topics];
+        }
+
+        private void messageArrived(final int index, final MqttMessage message) {
+            // Decoded and placed in the jitter buffer, the same work as in the app
+            final long start = System.nanoTime();
+            final boolean valid = tiltReceiver.receive(message.getPayload(), start);
+            final long end = System.nanoTime();
+            receiveTime.record(end - start);
+
+            received++;
+            lastReceiveTime = end;
+
+            if (!valid) {
+                invalid++;
+                return;
+            }
+
+            if (tiltReceiver.getTimestamp() != TiltCodec.NO_TIMESTAMP) {
+                transitTime.record(getTimeMicros(start) - tiltReceiver.getTimestamp());
+            }
+
+            final int sequence = tiltReceiver.getSequence();
+            if (sequence != TiltCodec.NO_SEQUENCE) {
+                final int missing = sequence - nextSequences[index];
+                if (missing > 0) {
+                    gaps += missing;
+                }
+                nextSequences[index] = Math.max(nextSequences[index], sequence + 1);
+            }
+        }
+
+        long getReceived() {
+            return received;
+        }
+
+        long getInvalid() {
+            return invalid;
+        }
+
+        long getGaps() {
+            return gaps;
+        }
+
+        long getLastReceiveTime() {
+            return lastReceiveTime;
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package de.othaw.nicolasproske.mauc.benchmark.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Minimal in-process MQTT 3.1.1 broker for load tests, so no external broker is needed.
+ * It accepts connections on the loopback interface and supports what the app and the
+ * controller use: publish with QoS 0, 1 and 2, subscriptions with the wildcards
+ * {@code +} and {@code #}, retained messages and keep-alive pings.
+ * <p>
+ * Messages are always forwarded with QoS 0. Every client has a bounded outbound queue,
+ * if a subscriber can't keep up, messages for it are dropped and counted instead of
+ * slowing down the publishers. Sessions, wills and authentication are not supported.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class StandInBroker implements Closeable {
+
+    // Packet types
+    private final static int CONNECT = 1;
+    private final static int PUBLISH = 3;
+    private final static int PUBACK = 4;
+    private final static int PUBREC = 5;
+    private final static int PUBREL = 6;
+    private final static int PUBCOMP = 7;
+    private final static int SUBSCRIBE = 8;
+    private final static int UNSUBSCRIBE = 10;
+    private final static int PINGREQ = 12;
+    private final static int DISCONNECT = 14;
+
+    /**
+     * Default number of packets which may wait for one subscriber.
+     */
+    public final static int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    // Marks the end of the outbound queue of a closed session
+    private final static byte[] END_OF_QUEUE = new byte[0];
+
+    private final ServerSocket serverSocket;
+    private final int queueCapacity;
+
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final Map<String, byte[]> retained = new ConcurrentHashMap<>();
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * Start a broker on a free port of the loopback interface.
+     *
+     * @throws IOException if no server socket could be opened
+     */
+    public StandInBroker() throws IOException {
+        this(0, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Start a broker on the loopback interface.
+     *
+     * @param port          the port, 0 for any free one
+     * @param queueCapacity the number of packets which may wait for one subscriber
+     * @throws IOException if no server socket could be opened
+     */
+    public StandInBroker(final int port, final int queueCapacity) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.queueCapacity = queueCapacity;
+
+        final Thread acceptThread = new Thread(this::accept, "StandInBroker-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Gets the uri clients connect to.
+     *
+     * @return the uri, e.g. tcp://127.0.0.1:54321
+     */
+    public String getUri() {
+        return "tcp://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop the broker and close all connections.
+     */
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(serverSocket);
+        for (final Session session : sessions) {
+            session.close();
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                final Session session = new Session(socket);
+                sessions.add(session);
+                session.start();
+            } catch (final IOException e) {
+                if (running) {
+                    System.err.println("StandInBroker: accept failed: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forward a message to all sessions with a matching subscription.
+     */
+    private void route(final String topic, final byte[] payload, final boolean retain) {
+        receivedCount.incrementAndGet();
+
+        if (retain) {
+            // An empty retained message clears the retained one
+            if (payload.length == 0) {
+                retained.remove(topic);
+            } else {
+                retained.put(topic, encodePublish(topic, payload, true));
+            }
+        }
+
+        byte[] packet = null;
+        for (final Session session : sessions) {
+            if (session.isSubscribed(topic)) {
+                if (packet == null) {
+                    packet = encodePublish(topic, payload, false);
+                }
+                session.send(packet);
+            }
+        }
+    }
+
+    /**
+     * Checks if a topic matches a subscription filter with the wildcards + and #.
+     *
+     * @param filter the filter
+     * @param topic  the topic
+     * @return true if it matches
+     */
+    public static boolean matches(final String filter, final String topic) {
+        int f = 0;
+        int t = 0;
+
+        while (f < filter.length()) {
+            final char c = filter.charAt(f);
+            if (c == '#') {
+                return true;
+            }
+
+            if (c == '+') {
+                // One complete level
+                while (t < topic.length() && topic.charAt(t) != '/') {
+                    t++;
+                }
+                f++;
+            } else if (t < topic.length() && topic.charAt(t) == c) {
+                f++;
+                t++;
+            } else {
+                // "a/#" also matches the parent level "a"
+                return t == topic.length() && f + 2 == filter.length() && filter.startsWith("/#", f);
+            }
+        }
+
+        return t == topic.length();
+    }
+
+    private static byte[] encodePublish(final String topic, final byte[] payload, final boolean retain) {
+        final byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        final int remaining = 2 + topicBytes.length + payload.length;
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(5 + remaining);
+        out.write((PUBLISH << 4) | (retain ? 1 : 0));
+        writeRemainingLength(out, remaining);
+        out.write(topicBytes.length >>> 8);
+        out.write(topicBytes.length);
+        out.write(topicBytes, 0, topicBytes.length);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeAck(final int type, final int flags, final int packetId) {
+        return new byte[]{(byte) ((type << 4) | flags), 2, (byte) (packetId >>> 8), (byte) packetId};
+    }
+
+    private static void writeRemainingLength(final ByteArrayOutputStream out, int length) {
+        do {
+            int digit = length & 0x7F;
+            length >>>= 7;
+            if (length > 0) {
+                digit |= 0x80;
+            }
+            out.write(digit);
+        } while (length > 0);
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (final IOException ignored) {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * Gets number of messages published to the broker.
+     *
+     * @return the received count
+     */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * Gets number of messages written to subscribers.
+     *
+     * @return the delivered count
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Gets number of messages dropped because a subscriber could not keep up.
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets number of connected clients.
+     *
+     * @return the session count
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * One client connection with a reader and a writer thread.
+     */
+    private final class Session {
+
+        private final Socket socket;
+        private final BlockingQueue<byte[]> outbound = new ArrayBlockingQueue<>(queueCapacity);
+        private final List<String> filters = new CopyOnWriteArrayList<>();
+        private volatile boolean open = true;
+
+        private Session(final Socket socket) {
+            this.socket = socket;
+        }
+
+        private void start() {
+            final Thread reader = new Thread(this::read, "StandInBroker-read-" + socket.getPort());
+            final Thread writer = new Thread(this::write, "StandInBroker-write-" + socket.getPort());
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        private boolean isSubscribed(final String topic) {
+            for (final String filter : filters) {
+                if (matches(filter, topic)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Queue a packet, dropped if the client is too slow.
+         */
+        private void send(final byte[] packet) {
+            if (open && !outbound.offer(packet)) {
+                droppedCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Queue a packet of the protocol itself, which must not be dropped.
+         */
+        private void sendControl(final byte[] packet) throws IOException {
+            try {
+                outbound.put(packet);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+
+        private void read() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (open) {
+                    final int header = in.readUnsignedByte();
+                    final byte[] body = new byte[readRemainingLength(in)];
+                    in.readFully(body);
+
+                    if (!handle(header >>> 4, header & 0x0F, body)) {
+                        break;
+                    }
+                }
+            } catch (final EOFException | SocketException e) {
+                // Client went away
+            } catch (final IOException e) {
+                System.err.println("StandInBroker: session failed: " + e);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Handle one packet.
+         *
+         * @return false if the client disconnected
+         */
+        private boolean handle(final int type, final int flags, final byte[] body) throws IOException {
+            switch (type) {
+                case CONNECT:
+                    // Connection accepted, no session present
+                    sendControl(new byte[]{0x20, 2, 0, 0});
+                    return true;
+                case PUBLISH: {
+                    final int qos = (flags >>> 1) & 3;
+                    final int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+                    final String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+                    int position = 2 + topicLength;
+
+                    int packetId = 0;
+                    if (qos > 0) {
+                        packetId = ((body[position] & 0xFF) << 8) | (body[position + 1] & 0xFF);
+                        position += 2;
+                    }
+
+                    final byte[] payload = new byte[body.length - position];
+                    System.arraycopy(body, position, payload, 0, payload.length);
+                    route(topic, payload, (flags & 1) != 0);
+
+                    if (qos == 1) {
+                        sendControl(encodeAck(PUBACK, 0, packetId));
+                    } else if (qos == 2) {
+                        sendControl(encodeAck(PUBREC, 0, packetId));
+                    }
+                    return true;
+                }
+                case PUBREL:
+                    sendControl(encodeAck(PUBCOMP, 0, getPacketId(body)));
+                    return true;
+                case SUBSCRIBE: {
+                    final ByteArrayOutputStream granted = new ByteArrayOutputStream();
+                    int position = 2;
+                    while (position < body.length) {
+                        final int length = ((body[position] & 0xFF) << 8) | (body[position + 1] & 0xFF);
+                        final String filter = new String(body, position + 2, length, StandardCharsets.UTF_8);
+                        position += 2 + length + 1;
+
+                        filters.add(filter);
+                        // Everything is forwarded with QoS 0
+                        granted.write(0);
+                    }
+
+                    final byte[] codes = granted.toByteArray();
+                    final ByteArrayOutputStream ack = new ByteArrayOutputStream();
+                    ack.write(0x90);
+                    writeRemainingLength(ack, 2 + codes.length);
+                    ack.write(body[0]);
+                    ack.write(body[1]);
+                    ack.write(codes, 0, codes.length);
+                    sendControl(ack.toByteArray());
+
+                    // Hand out the retained messages of the new subscriptions
+                    for (final Map.Entry<String, byte[]> entry : retained.entrySet()) {
+                        if (isSubscribed(entry.getKey())) {
+                            send(entry.getValue());
+                        }
+                    }
+                    return true;
+                }
+                case UNSUBSCRIBE: {
+                    int position = 2;
+                    while (position < body.length) {
+                        final int length = ((body[position] & 0xFF) << 8) | (body[position + 1] & 0xFF);
+                        filters.remove(new String(body, position + 2, length, StandardCharsets.UTF_8));
+                        position += 2 + length;
+                    }
+                    sendControl(encodeAck(UNSUBSCRIBE + 1, 0, getPacketId(body)));
+                    return true;
+                }
+                case PINGREQ:
+                    sendControl(new byte[]{(byte) 0xD0, 0});
+                    return true;
+                case DISCONNECT:
+                    return false;
+                default:
+                    // Acknowledgements of the client, nothing is sent with QoS > 0
+                    return true;
+            }
+        }
+
+        private void write() {
+            try (OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024)) {
+                while (true) {
+                    byte[] packet = outbound.take();
+
+                    // Write everything queued meanwhile before flushing once
+                    while (packet != null) {
+                        if (packet == END_OF_QUEUE) {
+                            return;
+                        }
+                        out.write(packet);
+                        if (packet[0] >>> 4 == PUBLISH) {
+                            deliveredCount.incrementAndGet();
+                        }
+                        packet = outbound.poll();
+                    }
+                    out.flush();
+                }
+            } catch (final IOException e) {
+                // Client went away
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        private void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            sessions.remove(this);
+
+            // Wake up the writer, there may be no room left if the client stalled
+            outbound.clear();
+            outbound.offer(END_OF_QUEUE);
+            closeQuietly(socket);
+        }
+    }
+
+    private static int getPacketId(final byte[] body) {
+        return ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+    }
+
+    private static int readRemainingLength(final InputStream in) throws IOException {
+        int length = 0;
+        int shift = 0;
+        int digit;
+        do {
+            digit = in.read();
+            if (digit < 0) {
+                throw new EOFException();
+            }
+            length |= (digit & 0x7F) << shift;
+            shift += 7;
+            if (shift > 21 && (digit & 0x80) != 0) {
+                throw new IOException("Malformed remaining length");
+            }
+        } while ((digit & 0x80) != 0);
+        return length;
+    }
+}
@@ -0,0 +1,178 @@
+package de.othaw.nicolasproske.mauc.benchmark.load;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Tests the {@link StandInBroker} with real Paho clients, so the load test can trust it.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public class StandInBrokerTest {
+
+    private final static long TIMEOUT_MILLIS = 5_000L;
+
+    private StandInBroker broker;
+    private MqttAsyncClient publisher;
+    private MqttAsyncClient subscriber;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new StandInBroker();
+        publisher = connect("test-pub");
+        subscriber = connect("test-sub");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        close(subscriber);
+        close(publisher);
+        broker.close();
+    }
+
+    @Test
+    public void matchesWildcards() {
+        assertTrue(StandInBroker.matches("tilt", "tilt"));
+        assertFalse(StandInBroker.matches("tilt", "tilts"));
+        assertTrue(StandInBroker.matches("load/+", "load/7"));
+        assertFalse(StandInBroker.matches("load/+", "load/7/x"));
+        assertTrue(StandInBroker.matches("load/+/x", "load/7/x"));
+        assertTrue(StandInBroker.matches("load/#", "load/7/x"));
+        assertTrue(StandInBroker.matches("load/#", "load"));
+        assertFalse(StandInBroker.matches("load/#", "other/7"));
+        assertTrue(StandInBroker.matches("#", "any/topic"));
+    }
+
+    @Test
+    public void deliversToMatchingSubscription() throws Exception {
+        final BlockingQueue<String> received = subscribe("load/+");
+
+        publish("load/1", "1.0,2.0", false);
+        publish("other/1", "3.0,4.0", false);
+        publish("load/2", "5.0,6.0", false);
+
+        assertEquals("load/1 1.0,2.0", received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals("load/2 5.0,6.0", received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertNull(received.poll(100L, TimeUnit.MILLISECONDS));
+
+        assertEquals(3L, broker.getReceivedCount());
+        assertEquals(2L, broker.getDeliveredCount());
+        assertEquals(0L, broker.getDroppedCount());
+    }
+
+    @Test
+    public void keepsRetainedMessageForNewSubscribers() throws Exception {
+        publish("telemetry", "old", true);
+        publish("telemetry", "new", true);
+
+        final BlockingQueue<String> received = subscribe("telemetry");
+        assertEquals("telemetry new", received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // An empty retained message clears it
+        publish("telemetry", "", true);
+        final MqttAsyncClient late = connect("test-late");
+        try {
+            assertNull(subscribe(late, "telemetry").poll(200L, TimeUnit.MILLISECONDS));
+        } finally {
+            close(late);
+        }
+    }
+
+    @Test
+    public void passesBinaryPayloadUnchanged() throws Exception {
+        final BlockingQueue<byte[]> received = new ArrayBlockingQueue<>(16);
+        subscribe(subscriber, "binary", (topic, message) -> received.add(message.getPayload()));
+
+        final byte[] payload = new byte[300];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        publisher.publish("binary", payload, 0, false).waitForCompletion(TIMEOUT_MILLIS);
+
+        final byte[] arrived = received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(arrived);
+        assertArrayEquals(payload, arrived);
+    }
+
+    private BlockingQueue<String> subscribe(final String filter) throws MqttException {
+        return subscribe(subscriber, filter);
+    }
+
+    private static BlockingQueue<String> subscribe(final MqttAsyncClient client, final String filter) throws MqttException {
+        final BlockingQueue<String> received = new ArrayBlockingQueue<>(16);
+        subscribe(client, filter,
+                (topic, message) -> received.add(topic + " " + new String(message.getPayload(), StandardCharsets.UTF_8)));
+        return received;
+    }
+
+    /**
+     * Subscribe with a callback of the client instead of a listener of the subscription. Older
+     * Paho versions only register such a listener after the subscription was sent, so the
+     * retained messages, which the broker hands out right away, could miss it.
+     */
+    private static void subscribe(final MqttAsyncClient client, final String filter,
+                                  final IMqttMessageListener listener) throws MqttException {
+        client.setCallback(new MqttCallback() {
+            @Override
+            public void connectionLost(final Throwable cause) {
+            }
+
+            @Override
+            public void messageArrived(final String topic, final MqttMessage message) throws Exception {
+                listener.messageArrived(topic, message);
+            }
+
+            @Override
+            public void deliveryComplete(final IMqttDeliveryToken token) {
+            }
+        });
+        client.subscribe(filter, 0).waitForCompletion(TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Publish with QoS 1, the broker acknowledges after routing, so the message is
+     * retained or delivered when this returns. With QoS 0 it would only be written.
+     */
+    private void publish(final String topic, final String payload, final boolean retained) throws MqttException {
+        publisher.publish(topic, payload.getBytes(StandardCharsets.UTF_8), 1, retained).waitForCompletion(TIMEOUT_MILLIS);
+    }
+
+    private MqttAsyncClient connect(final String clientId) throws MqttException {
+        final MqttAsyncClient client = new MqttAsyncClient(broker.getUri(), clientId, new MemoryPersistence());
+        final MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        client.connect(options).waitForCompletion(TIMEOUT_MILLIS);
+        return client;
+    }
+
+    private static void close(final MqttAsyncClient client) throws MqttException {
+        if (client.isConnected()) {
+            client.disconnect().waitForCompletion(TIMEOUT_MILLIS);
+        }
+        client.close();
+    }
+}
@@ -0,0 +1,420 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Resolves ball by ball collisions and the bounds constraint on top of a {@link SpatialGrid}.
+ * <p>
+ * The cells are processed in nine phases, one per colour {@code (column % 3, row % 3)}.
+ * Resolving a cell only touches balls in the cell itself and in its direct neighbours,
+ * so two cells of the same colour never share a ball and all cells of one phase can be
+ * resolved concurrently. Serial and parallel mode visit the cells in the same phases and
+ * use a deterministic entropy, which makes both modes produce the same positions.
+ * <p>
+ * Pairs of sleeping balls are skipped. A sleeping ball which is hit by an awake ball is
+ * woken up, it belongs to the block of the resolved cell, so this does not race either.
+ * <p>
+ * Each pass reports the deepest penetration it resolved, so the caller can stop iterating
+ * once the balls are separated well enough. The touching pairs of the last pass are kept
+ * and can be resolved once more at the start of the next step, before the grid is walked
+ * again. Each row of a phase records into its own list, so the parallel mode does not need
+ * to synchronize either.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class CollisionSolver {
+
+    /**
+     * The solver mode.
+     */
+    public enum Mode {
+        /**
+         * Resolve all cells on the calling thread.
+         */
+        SERIAL,
+        /**
+         * Resolve the cells of each phase on all cores.
+         */
+        PARALLEL
+    }
+
+    // Number of cell rows of one phase which are resolved by a single task
+    private final static int ROWS_PER_TASK = 2;
+
+    // Overlap relative to the diameter above which a sleeping ball is woken up by its partner
+    private final static float WAKE_PENETRATION = 0.05f;
+
+    private final ForkJoinPool pool;
+    private volatile Mode mode = Mode.SERIAL;
+
+    // State of the running pass, published to the workers by the fork
+    private ParticleStore store;
+    private float[] posX;
+    private float[] posY;
+    private int[] head;
+    private int[] next;
+    private int columns;
+    private int rows;
+    private float diameter;
+    private int seed;
+
+    // Touching pairs of the last pass, one list for every third row
+    private ContactList[] contacts = new ContactList[0];
+
+    /**
+     * Instantiates a new Collision solver using the common fork-join pool.
+     */
+    public CollisionSolver() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Instantiates a new Collision solver.
+     *
+     * @param pool the pool running the parallel mode
+     */
+    public CollisionSolver(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Performs one pass over all balls. Each pair of overlapping balls is pushed apart
+     * and afterwards every ball is moved back inside the bounds. The touching pairs are
+     * recorded for {@link #warmStart(ParticleStore, float, float, float, int)}.
+     *
+     * @param store     the particle store
+     * @param grid      the grid, updated to the current positions
+     * @param diameter  the ball diameter
+     * @param xMax      the horizontal bound
+     * @param yMax      the vertical bound
+     * @param seed      the seed of the entropy, should change with every pass
+     * @return the deepest penetration of two balls in meters, 0 if no balls overlapped
+     */
+    public float solve(final ParticleStore store, final SpatialGrid grid, final float diameter,
+                       final float xMax, final float yMax, final int seed) {
+        prepare(store, diameter, seed);
+        this.head = grid.getHead();
+        this.next = grid.getNext();
+        this.columns = grid.getColumns();
+        this.rows = grid.getRows();
+
+        // Every third row gets its own list, rows of different phases share it one after the other
+        final int lists = (rows + 2) / 3;
+        if (contacts.length < lists) {
+            final int oldLength = contacts.length;
+            contacts = Arrays.copyOf(contacts, lists);
+            for (int k = oldLength; k < lists; k++) {
+                contacts[k] = new ContactList();
+            }
+        }
+        clearContacts();
+
+        final boolean parallel = mode == Mode.PARALLEL && pool.getParallelism() > 1;
+        float penetration = 0f;
+
+        for (int phaseY = 0; phaseY < 3; phaseY++) {
+            for (int phaseX = 0; phaseX < 3; phaseX++) {
+                if (parallel) {
+                    final PhaseTask task = new PhaseTask(phaseX, phaseY, rows);
+                    pool.invoke(task);
+                    penetration = Math.max(penetration, task.penetration);
+                } else {
+                    penetration = Math.max(penetration, solveRows(phaseX, phaseY, rows));
+                }
+            }
+        }
+
+        resolveBounds(xMax, yMax);
+
+        return penetration;
+    }
+
+    /**
+     * Resolves the pairs which touched in the last pass of the previous step once more.
+     * Balls in a pile are pushed into each other by every step, the known pairs can be
+     * separated again without walking the grid, so the following passes start closer
+     * to the solution. Runs on the calling thread.
+     *
+     * @param store     the particle store
+     * @param diameter  the ball diameter
+     * @param xMax      the horizontal bound
+     * @param yMax      the vertical bound
+     * @param seed      the seed of the entropy
+     * @return the deepest penetration of two balls in meters, 0 if no balls overlapped
+     */
+    public float warmStart(final ParticleStore store, final float diameter,
+                           final float xMax, final float yMax, final int seed) {
+        prepare(store, diameter, seed);
+
+        float penetration = 0f;
+
+        for (final ContactList list : contacts) {
+            final int size = list.size();
+            for (int k = 0; k < size; k++) {
+                penetration = Math.max(penetration, resolveCollision(list.getFirst(k), list.getSecond(k), null));
+            }
+        }
+
+        resolveBounds(xMax, yMax);
+
+        return penetration;
+    }
+
+    /**
+     * Forget the recorded pairs. Must be called whenever the particle store is compacted,
+     * as the pairs are stored by index.
+     */
+    public void clearContacts() {
+        for (final ContactList list : contacts) {
+            list.clear();
+        }
+    }
+
+    /**
+     * Gets number of touching pairs recorded in the last pass.
+     *
+     * @return the contact count
+     */
+    public int getContactCount() {
+        int count = 0;
+        for (final ContactList list : contacts) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    private void prepare(final ParticleStore store, final float diameter, final int seed) {
+        this.store = store;
+        this.posX = store.getPosX();
+        this.posY = store.getPosY();
+        this.diameter = diameter;
+        this.seed = seed;
+    }
+
+    /**
+     * Calculate the new ball positions if collision with phone bounds was detected.
+     */
+    private void resolveBounds(final float xMax, final float yMax) {
+        final int count = store.size();
+        for (int i = 0; i < count; i++) {
+            if (store.isAlive(i) && !store.isAsleep(i)) {
+                store.resolveCollisionWithBounds(i, xMax, yMax);
+            }
+        }
+    }
+
+    /**
+     * Resolve all cells of the phase in the rows from fromRow (inclusive) to toRow (exclusive).
+     */
+    private float solveRows(final int phaseX, final int fromRow, final int toRow) {
+        float penetration = 0f;
+
+        for (int row = fromRow; row < toRow; row += 3) {
+            final ContactList list = contacts[row / 3];
+            for (int column = phaseX; column < columns; column += 3) {
+                penetration = Math.max(penetration, solveCell(column, row, list));
+            }
+        }
+
+        return penetration;
+    }
+
+    /**
+     * Resolve the balls of a cell against each other and against the balls of the
+     * following neighbour cells. Every pair of neighbour cells is visited exactly once.
+     */
+    private float solveCell(final int column, final int row, final ContactList list) {
+        final int[] head = this.head;
+        final int[] next = this.next;
+        float penetration = 0f;
+
+        for (int i = head[row * columns + column]; i != SpatialGrid.NONE; i = next[i]) {
+            // Balls of the same cell
+            for (int j = next[i]; j != SpatialGrid.NONE; j = next[j]) {
+                penetration = Math.max(penetration, resolveCollision(i, j, list));
+            }
+
+            // Balls of the cells on the right and in the row above
+            if (column + 1 < columns) {
+                penetration = Math.max(penetration, solveAgainstCell(i, column + 1, row, list));
+            }
+            if (row + 1 < rows) {
+                if (column > 0) {
+                    penetration = Math.max(penetration, solveAgainstCell(i, column - 1, row + 1, list));
+                }
+                penetration = Math.max(penetration, solveAgainstCell(i, column, row + 1, list));
+                if (column + 1 < columns) {
+                    penetration = Math.max(penetration, solveAgainstCell(i, column + 1, row + 1, list));
+                }
+            }
+        }
+
+        return penetration;
+    }
+
+    private float solveAgainstCell(final int i, final int column, final int row, final ContactList list) {
+        float penetration = 0f;
+
+        for (int j = head[row * columns + column]; j != SpatialGrid.NONE; j = next[j]) {
+            penetration = Math.max(penetration, resolveCollision(i, j, list));
+        }
+
+        return penetration;
+    }
+
+    /**
+     * Resolve the collision of two balls, if they overlap they are pushed apart
+     * using a virtual spring of infinite stiffness.
+     *
+     * @param i    the i-th ball
+     * @param j    the j-th ball
+     * @param list the list recording the pair if they touched, or null
+     * @return the penetration in meters, 0 if the balls did not overlap
+     */
+    private float resolveCollision(final int i, final int j, final ContactList list) {
+        final float[] posX = this.posX;
+        final float[] posY = this.posY;
+
+        float dx = posX[j] - posX[i];
+        float dy = posY[j] - posY[i];
+        // dd is to detect ball by ball collision
+        float dd = dx * dx + dy * dy;
+
+        // Check for collisions
+        if (dd > diameter * diameter) {
+            return 0f;
+        }
+
+        // Balls at rest next to each other stay asleep
+        final boolean iAsleep = store.isAsleep(i);
+        final boolean jAsleep = store.isAsleep(j);
+
+        if (iAsleep && jAsleep) {
+            return 0f;
+        }
+
+        if (list != null) {
+            list.add(i, j);
+        }
+
+        /*
+         * add a little bit of entropy, after nothing is
+         * perfect in the universe. The entropy only depends on the
+         * pair and the seed, so it does not matter which thread resolves it.
+         */
+        final int hash = mix(i * 31 + j, seed);
+        dx += (((hash & 0xFFFF) / 65536f) - 0.5f) * 0.0001f;
+        dy += (((hash >>> 16) / 65536f) - 0.5f) * 0.0001f;
+        dd = dx * dx + dy * dy;
+
+        // simulate the spring
+        final float d = (float) Math.sqrt(dd);
+        final float overlap = diameter - d;
+        // The entropy may move touching balls slightly apart
+        final float penetration = Math.max(0f, overlap);
+
+        if (iAsleep || jAsleep) {
+            if (penetration > diameter * WAKE_PENETRATION) {
+                // A ball hit the sleeping one hard enough, so both take part again
+                store.wake(iAsleep ? i : j);
+            } else {
+                // A sleeping ball holds its place like a wall, only the awake ball is pushed away
+                final float c = overlap / d;
+                if (iAsleep) {
+                    posX[j] += dx * c;
+                    posY[j] += dy * c;
+                } else {
+                    posX[i] -= dx * c;
+                    posY[i] -= dy * c;
+                }
+                return penetration;
+            }
+        }
+
+        final float c = (0.5f * overlap) / d;
+        final float effectX = dx * c;
+        final float effectY = dy * c;
+
+        // Update ball position with calculated effect so the balls don't overlap each other
+        posX[i] -= effectX;
+        posY[i] -= effectY;
+        posX[j] += effectX;
+        posY[j] += effectY;
+
+        return penetration;
+    }
+
+    private static int mix(final int value, final int seed) {
+        int h = value * 0x9E3779B9 + seed;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * Gets solver mode.
+     *
+     * @return the mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets solver mode. The new mode is used from the next pass on.
+     *
+     * @param mode the mode
+     */
+    public void setMode(final Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Resolves the cells of one phase, splitting the rows until few enough are left.
+     */
+    private final class PhaseTask extends RecursiveAction {
+
+        private final static long serialVersionUID = 1L;
+
+        private final int phaseX;
+        private final int fromRow;
+        private final int toRow;
+
+        // Deepest penetration resolved by this task
+        private float penetration;
+
+        PhaseTask(final int phaseX, final int fromRow, final int toRow) {
+            this.phaseX = phaseX;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            // Number of rows of this phase in the range
+            final int count = (toRow - fromRow + 2) / 3;
+
+            if (count <= ROWS_PER_TASK) {
+                penetration = solveRows(phaseX, fromRow, toRow);
+                return;
+            }
+
+            // Split on a row which belongs to the phase
+            final int middle = fromRow + (count / 2) * 3;
+            final PhaseTask upper = new PhaseTask(phaseX, middle, toRow);
+            upper.fork();
+
+            final PhaseTask lower = new PhaseTask(phaseX, fromRow, middle);
+            lower.compute();
+            upper.join();
+
+            penetration = Math.max(lower.penetration, upper.penetration);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.Arrays;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Growable list of ball pairs which touched each other. The pairs are stored by
+ * index, so the list is only valid until the particle store is compacted.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+final class ContactList {
+
+    // Indices of both balls of each pair, one after the other
+    private int[] pairs = new int[32];
+    private int size;
+
+    /**
+     * Add a pair.
+     *
+     * @param i the index of the first ball
+     * @param j the index of the second ball
+     */
+    void add(final int i, final int j) {
+        if (2 * size + 1 >= pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[2 * size] = i;
+        pairs[2 * size + 1] = j;
+        size++;
+    }
+
+    /**
+     * Remove all pairs, the memory is kept for the next step.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Gets number of pairs.
+     *
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets index of the first ball of the k-th pair.
+     *
+     * @param k the pair
+     * @return the index
+     */
+    int getFirst(final int k) {
+        return pairs[2 * k];
+    }
+
+    /**
+     * Gets index of the second ball of the k-th pair.
+     *
+     * @param k the pair
+     * @return the index
+     */
+    int getSecond(final int k) {
+        return pairs[2 * k + 1];
+    }
+}
@@ -0,0 +1,229 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Lock-free ring buffer of timestamped tilt samples handed from the input thread, e.g. the
+ * MQTT callback, to the simulation and the view. Exactly one thread writes, any number of
+ * threads may read the latest sample or interpolate between the samples at a given time.
+ * <p>
+ * Every slot carries a stamp which is odd while the writer fills it, readers check the stamp
+ * before and after reading the slot and skip it if it changed. Timestamp and both values of
+ * a sample are therefore always read together, and neither side ever waits for the other
+ * or allocates.
+ * <p>
+ * Past the latest sample the tilt is held, or optionally extrapolated for a limited time
+ * from the last two samples.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class InputChannel implements InputSource {
+
+    // Stamp, timestamp and packed values of each slot
+    private final static int SLOT_SIZE = 3;
+
+    private final int mask;
+
+    // Slot i is stamped 2 * i + 1 while written and 2 * i + 2 once complete
+    private final AtomicLongArray slots;
+
+    // Number of completely written samples
+    private final AtomicLong published = new AtomicLong();
+
+    // Only touched by the writer
+    private long written;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Instantiates a new InputChannel.
+     *
+     * @param capacity the number of kept samples, rounded up to a power of two
+     */
+    public InputChannel(final int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        }
+
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicLongArray(size * SLOT_SIZE);
+    }
+
+    /**
+     * Add a sample. Must only be called by the writing thread.
+     *
+     * @param timestamp the monotonic timestamp in nanoseconds, earlier ones are raised to the previous one
+     * @param x         the x acceleration
+     * @param y         the y acceleration
+     * @return the timestamp the sample was stored with
+     */
+    public long write(final long timestamp, final float x, final float y) {
+        final long index = written;
+        final int base = (int) (index & mask) * SLOT_SIZE;
+
+        // Keep the timestamps ordered, otherwise the interpolation could not search them
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+
+        slots.set(base, 2 * index + 1);
+        slots.set(base + 1, lastTimestamp);
+        slots.set(base + 2, ((long) Float.floatToIntBits(x) << 32) | (Float.floatToIntBits(y) & 0xFFFFFFFFL));
+        slots.set(base, 2 * index + 2);
+
+        written = index + 1;
+        published.set(written);
+        return lastTimestamp;
+    }
+
+    /**
+     * Read the latest sample.
+     *
+     * @param sample the sample to fill
+     * @return true if a sample was read, false if nothing was written yet
+     */
+    public boolean readLatest(final InputSample sample) {
+        while (true) {
+            final long count = published.get();
+            if (count == 0L) {
+                return false;
+            }
+            // Only fails if the writer wrapped around meanwhile, then the next one is newer
+            if (read(count - 1, sample)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Read the tilt at the given time, interpolated between the samples before and after it.
+     * Before the oldest kept sample its values are used, after the latest one its values.
+     *
+     * @param timestamp the monotonic timestamp in nanoseconds
+     * @param sample    the sample to fill
+     * @return true if a sample was read, false if nothing was written yet
+     */
+    @Override
+    public boolean sample(final long timestamp, final InputSample sample) {
+        return sample(timestamp, sample, 0L);
+    }
+
+    /**
+     * Read the tilt at the given time like {@link #sample(long, InputSample)}, but continue the
+     * trend of the last two samples after the latest one for at most the given time.
+     *
+     * @param timestamp        the monotonic timestamp in nanoseconds
+     * @param sample           the sample to fill
+     * @param maxExtrapolation the longest time in nanoseconds to extrapolate, 0 to hold the latest sample
+     * @return true if a sample was read, false if nothing was written yet
+     */
+    public boolean sample(final long timestamp, final InputSample sample, final long maxExtrapolation) {
+        final long count = published.get();
+        if (count == 0L) {
+            return false;
+        }
+
+        // Keep a slot distance to the one the writer may fill right now
+        final long oldest = Math.max(0L, count - mask);
+
+        boolean found = false;
+        long afterTimestamp = 0L;
+        float afterX = 0f;
+        float afterY = 0f;
+
+        // Search backwards from the latest sample, the wanted time is usually close to it
+        for (long index = count - 1; index >= oldest; index--) {
+            if (!read(index, sample)) {
+                // Overwritten meanwhile, so the older ones are gone too
+                break;
+            }
+
+            if (sample.getTimestamp() <= timestamp) {
+                if (found && afterTimestamp > sample.getTimestamp()) {
+                    final float t = (float) (timestamp - sample.getTimestamp()) / (afterTimestamp - sample.getTimestamp());
+                    sample.set(timestamp,
+                            sample.getX() + (afterX - sample.getX()) * t,
+                            sample.getY() + (afterY - sample.getY()) * t);
+                } else if (!found && maxExtrapolation > 0L && timestamp > sample.getTimestamp() && index > oldest) {
+                    extrapolate(index, timestamp, maxExtrapolation, sample);
+                }
+                return true;
+            }
+
+            found = true;
+            afterTimestamp = sample.getTimestamp();
+            afterX = sample.getX();
+            afterY = sample.getY();
+        }
+
+        if (!found) {
+            // Even the latest sample was overwritten, which only happens if the reader stalled
+            return readLatest(sample);
+        }
+
+        // Everything kept is newer, so use the oldest one
+        sample.set(afterTimestamp, afterX, afterY);
+        return true;
+    }
+
+    /**
+     * Continue the line through the sample before the given one and the given one, which is
+     * in the sample, to the timestamp. Keeps the sample as it is if the earlier one is gone.
+     */
+    private void extrapolate(final long index, final long timestamp, final long maxExtrapolation, final InputSample sample) {
+        final long latestTimestamp = sample.getTimestamp();
+        final float latestX = sample.getX();
+        final float latestY = sample.getY();
+
+        if (!read(index - 1, sample) || sample.getTimestamp() >= latestTimestamp) {
+            sample.set(latestTimestamp, latestX, latestY);
+            return;
+        }
+
+        final long ahead = Math.min(timestamp - latestTimestamp, maxExtrapolation);
+        final float t = (float) ahead / (latestTimestamp - sample.getTimestamp());
+        sample.set(latestTimestamp + ahead,
+                latestX + (latestX - sample.getX()) * t,
+                latestY + (latestY - sample.getY()) * t);
+    }
+
+    /**
+     * Read one slot, fails if the writer touched it meanwhile.
+     */
+    private boolean read(final long index, final InputSample sample) {
+        final int base = (int) (index & mask) * SLOT_SIZE;
+        final long stamp = 2 * index + 2;
+
+        if (slots.get(base) != stamp) {
+            return false;
+        }
+        final long timestamp = slots.get(base + 1);
+        final long values = slots.get(base + 2);
+        if (slots.get(base) != stamp) {
+            return false;
+        }
+
+        sample.set(timestamp, Float.intBitsToFloat((int) (values >>> 32)), Float.intBitsToFloat((int) values));
+        return true;
+    }
+
+    /**
+     * Gets number of samples written so far.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return published.get();
+    }
+
+    /**
+     * Gets number of kept samples.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,50 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Tilt of the board at one point in time, read from an {@link InputChannel}.
+ * A sample is owned by the thread which reads into it and reused for every read.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class InputSample {
+
+    private long timestamp;
+    private float x;
+    private float y;
+
+    void set(final long timestamp, final float x, final float y) {
+        this.timestamp = timestamp;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Gets timestamp.
+     *
+     * @return the monotonic timestamp in nanoseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets x acceleration.
+     *
+     * @return the x acceleration
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Gets y acceleration.
+     *
+     * @return the y acceleration
+     */
+    public float getY() {
+        return y;
+    }
+}
@@ -0,0 +1,22 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Provides the tilt of the board at a given time, e.g. an {@link InputChannel} or a
+ * {@link JitterBuffer} in front of it. The simulation reads it once per step.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public interface InputSource {
+
+    /**
+     * Read the tilt at the given time.
+     *
+     * @param timestamp the monotonic timestamp in nanoseconds
+     * @param sample    the sample to fill
+     * @return true if a sample was read, false if there is no input yet
+     */
+    boolean sample(long timestamp, InputSample sample);
+}
@@ -0,0 +1,230 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Smooths remote tilt input which arrives with varying network latency. Samples are placed
+ * on the local clock by the timestamp of the sender instead of their arrival, so bursts and
+ * gaps of the network don't show up as jerks. The simulation reads the input a small delay
+ * behind the present, where samples are usually there to interpolate between. If a sample is
+ * late anyway, the trend of the last samples is extrapolated for a limited time.
+ * <p>
+ * The clock offset between sender and receiver is the smallest observed transit time in a
+ * sliding window, every sample's lateness is measured against it. With {@link #AUTO_DELAY}
+ * the delay follows the smoothed lateness and its deviation plus one sender interval, within
+ * {@link #MAX_DELAY_NANOS}. Samples without sender timestamp are placed at their arrival.
+ * <p>
+ * One thread adds samples, any thread may read them.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class JitterBuffer implements InputSource {
+
+    /**
+     * Target delay which adapts to the measured jitter.
+     */
+    public final static long AUTO_DELAY = -1L;
+
+    /**
+     * Upper bound of the adaptive delay.
+     */
+    public final static long MAX_DELAY_NANOS = 150_000_000L;
+
+    /**
+     * Default time a late sample is extrapolated before the input is held.
+     */
+    public final static long DEFAULT_MAX_EXTRAPOLATION_NANOS = 50_000_000L;
+
+    /**
+     * Sender timestamp of samples without one.
+     */
+    public final static long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    // Length of each of the two windows of the minimum transit time
+    private final static long OFFSET_WINDOW_NANOS = 2_000_000_000L;
+
+    // A sender clock which jumps back further than this starts a new estimation
+    private final static long CLOCK_RESET_NANOS = 1_000_000_000L;
+
+    private final InputChannel channel;
+
+    private volatile long targetDelay = AUTO_DELAY;
+    private volatile long maxExtrapolation = DEFAULT_MAX_EXTRAPOLATION_NANOS;
+
+    // Delay derived from the lateness, published to the readers
+    private volatile long adaptiveDelay;
+
+    // Writer only: minimum transit time of the current and the previous window
+    private long windowStart;
+    private long currentMinTransit;
+    private long previousMinTransit;
+
+    // Writer only: smoothed lateness, its deviation and the smoothed sender interval
+    private long meanLateness;
+    private long lateDeviation;
+    private long meanInterval;
+
+    private long lastSenderTime;
+    private boolean started;
+    private volatile long staleSamples;
+
+    /**
+     * Instantiates a new Jitter buffer.
+     *
+     * @param channel the channel the placed samples are written to
+     */
+    public JitterBuffer(final InputChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Add a received sample. Must only be called by one thread.
+     *
+     * @param senderTimestamp the timestamp of the sender in microseconds since the epoch, or {@link #NO_TIMESTAMP}
+     * @param receiveTime     the monotonic arrival time in nanoseconds
+     * @param x               the x acceleration
+     * @param y               the y acceleration
+     * @return the monotonic time the sample was placed at, or {@link #NO_TIMESTAMP} if it was dropped as stale
+     */
+    public long add(final long senderTimestamp, final long receiveTime, final float x, final float y) {
+        if (senderTimestamp == NO_TIMESTAMP) {
+            return channel.write(receiveTime, x, y);
+        }
+
+        final long senderTime = senderTimestamp * 1000L;
+
+        if (started && senderTime <= lastSenderTime) {
+            if (lastSenderTime - senderTime < CLOCK_RESET_NANOS) {
+                // Reordered or duplicated, a newer sample was already placed
+                staleSamples++;
+                return NO_TIMESTAMP;
+            }
+            // The sender clock was set back
+            started = false;
+        }
+
+        final long transit = receiveTime - senderTime;
+
+        if (!started) {
+            windowStart = receiveTime;
+            currentMinTransit = transit;
+            previousMinTransit = transit;
+            meanLateness = 0L;
+            lateDeviation = 0L;
+            meanInterval = 0L;
+        } else {
+            // Two overlapping windows, so the minimum follows a drifting clock
+            if (receiveTime - windowStart > OFFSET_WINDOW_NANOS) {
+                previousMinTransit = currentMinTransit;
+                currentMinTransit = transit;
+                windowStart = receiveTime;
+            } else {
+                currentMinTransit = Math.min(currentMinTransit, transit);
+            }
+
+            meanInterval += (Math.min(senderTime - lastSenderTime, MAX_DELAY_NANOS) - meanInterval) >> 3;
+        }
+
+        final long offset = Math.min(currentMinTransit, previousMinTransit);
+        final long lateness = transit - offset;
+
+        // Smoothed like the round trip time of TCP
+        lateDeviation += (Math.abs(lateness - meanLateness) - lateDeviation) >> 2;
+        meanLateness += (lateness - meanLateness) >> 3;
+        adaptiveDelay = Math.min(MAX_DELAY_NANOS, meanLateness + 4 * lateDeviation + meanInterval);
+
+        lastSenderTime = senderTime;
+        started = true;
+
+        return channel.write(senderTime + offset, x, y);
+    }
+
+    /**
+     * Forget the estimated clock offset and jitter, e.g. when samples come from another
+     * sender now. Must not be called while a sample is added.
+     */
+    public void reset() {
+        started = false;
+        adaptiveDelay = 0L;
+    }
+
+    /**
+     * Read the tilt the delay before the given time, extrapolated if the samples are late.
+     *
+     * @param timestamp the monotonic timestamp in nanoseconds
+     * @param sample    the sample to fill
+     * @return true if a sample was read, false if there is no input yet
+     */
+    @Override
+    public boolean sample(final long timestamp, final InputSample sample) {
+        return channel.sample(timestamp - getDelay(), sample, maxExtrapolation);
+    }
+
+    /**
+     * Gets the delay currently used to read the input.
+     *
+     * @return the delay in nanoseconds
+     */
+    public long getDelay() {
+        final long target = targetDelay;
+        return target == AUTO_DELAY ? adaptiveDelay : target;
+    }
+
+    /**
+     * Gets target delay.
+     *
+     * @return the target delay in nanoseconds, or {@link #AUTO_DELAY}
+     */
+    public long getTargetDelay() {
+        return targetDelay;
+    }
+
+    /**
+     * Sets the delay behind the present at which the input is read.
+     *
+     * @param targetDelay the delay in nanoseconds, or {@link #AUTO_DELAY} to adapt it to the jitter
+     */
+    public void setTargetDelay(final long targetDelay) {
+        if (targetDelay < 0L && targetDelay != AUTO_DELAY) {
+            throw new IllegalArgumentException("Delay must not be negative: " + targetDelay);
+        }
+        this.targetDelay = targetDelay;
+    }
+
+    /**
+     * Gets the longest time a late sample is extrapolated.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getMaxExtrapolation() {
+        return maxExtrapolation;
+    }
+
+    /**
+     * Sets the longest time a late sample is extrapolated, afterwards the input is held.
+     *
+     * @param maxExtrapolation the time in nanoseconds, 0 to never extrapolate
+     */
+    public void setMaxExtrapolation(final long maxExtrapolation) {
+        this.maxExtrapolation = Math.max(0L, maxExtrapolation);
+    }
+
+    /**
+     * Gets number of samples dropped because a newer one had already arrived.
+     *
+     * @return the stale count
+     */
+    public long getStaleSamples() {
+        return staleSamples;
+    }
+
+    /**
+     * Gets the channel the samples are written to.
+     *
+     * @return the input channel
+     */
+    public InputChannel getChannel() {
+        return channel;
+    }
+}
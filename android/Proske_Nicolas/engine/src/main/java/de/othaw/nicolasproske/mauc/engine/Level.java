@@ -0,0 +1,265 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Immutable description of the static holes and obstacles of a board. A level does not
+ * know the size of the board, so it fits every screen: x positions are relative to the
+ * horizontal bound, y positions to the vertical bound and radii to the smaller of both,
+ * e.g. x = 1 is the right border and a radius of 0.5 spans half the shorter half-axis.
+ * <p>
+ * An obstacle is a segment with a radius, a round obstacle has both ends on its center.
+ * Levels are read from a plain text description with one shape per line:
+ * <pre>
+ * # comment
+ * hole   x y radius
+ * circle x y radius
+ * wall   x1 y1 x2 y2 thickness
+ * </pre>
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class Level {
+
+    /**
+     * Level without any holes or obstacles.
+     */
+    public final static Level EMPTY = new Level(new float[0], 0, new float[0], 0);
+
+    // Values per hole: x, y, radius
+    private final static int HOLE_STRIDE = 3;
+
+    // Values per obstacle: x1, y1, x2, y2, radius
+    private final static int OBSTACLE_STRIDE = 5;
+
+    private final float[] holes;
+    private final int holeCount;
+    private final float[] obstacles;
+    private final int obstacleCount;
+
+    private Level(final float[] holes, final int holeCount, final float[] obstacles, final int obstacleCount) {
+        this.holes = holes;
+        this.holeCount = holeCount;
+        this.obstacles = obstacles;
+        this.obstacleCount = obstacleCount;
+    }
+
+    /**
+     * Read a level from its text description.
+     *
+     * @param reader the reader of the description, it is not closed
+     * @return the level
+     * @throws IOException              if the description could not be read
+     * @throws IllegalArgumentException if a line of the description is invalid
+     */
+    public static Level parse(final Reader reader) throws IOException {
+        final BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+
+        float[] holes = new float[HOLE_STRIDE * 8];
+        float[] obstacles = new float[OBSTACLE_STRIDE * 8];
+        int holeCount = 0;
+        int obstacleCount = 0;
+        int lineNumber = 0;
+
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+
+            // Skip blank lines and comments
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final String[] tokens = line.split("\\s+");
+            final float[] values = parseValues(tokens, lineNumber);
+
+            switch (tokens[0]) {
+                case "hole": {
+                    checkCount(tokens, 3, lineNumber);
+                    checkRadius(values[2], lineNumber);
+                    if (HOLE_STRIDE * (holeCount + 1) > holes.length) {
+                        holes = Arrays.copyOf(holes, holes.length * 2);
+                    }
+                    System.arraycopy(values, 0, holes, HOLE_STRIDE * holeCount++, HOLE_STRIDE);
+                    break;
+                }
+                case "circle": {
+                    checkCount(tokens, 3, lineNumber);
+                    checkRadius(values[2], lineNumber);
+                    if (OBSTACLE_STRIDE * (obstacleCount + 1) > obstacles.length) {
+                        obstacles = Arrays.copyOf(obstacles, obstacles.length * 2);
+                    }
+                    final int offset = OBSTACLE_STRIDE * obstacleCount++;
+                    obstacles[offset] = values[0];
+                    obstacles[offset + 1] = values[1];
+                    obstacles[offset + 2] = values[0];
+                    obstacles[offset + 3] = values[1];
+                    obstacles[offset + 4] = values[2];
+                    break;
+                }
+                case "wall": {
+                    checkCount(tokens, 5, lineNumber);
+                    checkRadius(values[4], lineNumber);
+                    if (OBSTACLE_STRIDE * (obstacleCount + 1) > obstacles.length) {
+                        obstacles = Arrays.copyOf(obstacles, obstacles.length * 2);
+                    }
+                    final int offset = OBSTACLE_STRIDE * obstacleCount++;
+                    System.arraycopy(values, 0, obstacles, offset, 4);
+                    // The thickness is the full width of the wall
+                    obstacles[offset + 4] = values[4] * 0.5f;
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Line " + lineNumber + ": unknown shape " + tokens[0]);
+            }
+        }
+
+        return new Level(holes, holeCount, obstacles, obstacleCount);
+    }
+
+    private static float[] parseValues(final String[] tokens, final int lineNumber) {
+        final float[] values = new float[tokens.length - 1];
+
+        for (int i = 1; i < tokens.length; i++) {
+            try {
+                values[i - 1] = Float.parseFloat(tokens[i]);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": invalid number " + tokens[i], e);
+            }
+            if (Float.isNaN(values[i - 1]) || Float.isInfinite(values[i - 1])) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": invalid number " + tokens[i]);
+            }
+        }
+
+        return values;
+    }
+
+    private static void checkCount(final String[] tokens, final int count, final int lineNumber) {
+        if (tokens.length - 1 != count) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + tokens[0] + " expects " + count
+                    + " values, got " + (tokens.length - 1));
+        }
+    }
+
+    private static void checkRadius(final float radius, final int lineNumber) {
+        if (radius < 0f) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": negative size " + radius);
+        }
+    }
+
+    /**
+     * Gets the factor converting a relative radius to meters.
+     *
+     * @param xMax the horizontal bound
+     * @param yMax the vertical bound
+     * @return the smaller bound
+     */
+    public static float getScale(final float xMax, final float yMax) {
+        return Math.min(xMax, yMax);
+    }
+
+    /**
+     * Gets number of holes.
+     *
+     * @return the hole count
+     */
+    public int getHoleCount() {
+        return holeCount;
+    }
+
+    /**
+     * Gets relative x position of the center of a hole.
+     *
+     * @param k the hole
+     * @return the x position relative to the horizontal bound
+     */
+    public float getHoleX(final int k) {
+        return holes[HOLE_STRIDE * k];
+    }
+
+    /**
+     * Gets relative y position of the center of a hole.
+     *
+     * @param k the hole
+     * @return the y position relative to the vertical bound
+     */
+    public float getHoleY(final int k) {
+        return holes[HOLE_STRIDE * k + 1];
+    }
+
+    /**
+     * Gets relative radius of a hole.
+     *
+     * @param k the hole
+     * @return the radius relative to the smaller bound
+     */
+    public float getHoleRadius(final int k) {
+        return holes[HOLE_STRIDE * k + 2];
+    }
+
+    /**
+     * Gets number of obstacles.
+     *
+     * @return the obstacle count
+     */
+    public int getObstacleCount() {
+        return obstacleCount;
+    }
+
+    /**
+     * Gets relative x position of the first end of an obstacle.
+     *
+     * @param k the obstacle
+     * @return the x position relative to the horizontal bound
+     */
+    public float getObstacleX1(final int k) {
+        return obstacles[OBSTACLE_STRIDE * k];
+    }
+
+    /**
+     * Gets relative y position of the first end of an obstacle.
+     *
+     * @param k the obstacle
+     * @return the y position relative to the vertical bound
+     */
+    public float getObstacleY1(final int k) {
+        return obstacles[OBSTACLE_STRIDE * k + 1];
+    }
+
+    /**
+     * Gets relative x position of the second end of an obstacle.
+     *
+     * @param k the obstacle
+     * @return the x position relative to the horizontal bound
+     */
+    public float getObstacleX2(final int k) {
+        return obstacles[OBSTACLE_STRIDE * k + 2];
+    }
+
+    /**
+     * Gets relative y position of the second end of an obstacle.
+     *
+     * @param k the obstacle
+     * @return the y position relative to the vertical bound
+     */
+    public float getObstacleY2(final int k) {
+        return obstacles[OBSTACLE_STRIDE * k + 3];
+    }
+
+    /**
+     * Gets relative radius of an obstacle, half the thickness of a wall.
+     *
+     * @param k the obstacle
+     * @return the radius relative to the smaller bound
+     */
+    public float getObstacleRadius(final int k) {
+        return obstacles[OBSTACLE_STRIDE * k + 4];
+    }
+}
@@ -0,0 +1,331 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.Arrays;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Static spatial index of the holes and obstacles of a {@link Level}, converted to
+ * meters for the current bounds. The board is divided into a coarse grid, each cell
+ * lists the shapes which may reach a ball whose center is inside the cell. A ball is
+ * only tested against the few shapes of its own cell, so the cost does not grow with
+ * the number of shapes on the board.
+ * <p>
+ * The cell lists are stored compressed: the shapes of cell c are the items from
+ * start[c] (inclusive) to start[c + 1] (exclusive). The index is rebuilt when the level
+ * or the bounds change and is only used by the stepping thread.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+final class LevelIndex {
+
+    // A cell spans a few balls, but the grid never gets finer than this many cells per axis
+    private final static float CELL_SIZE_IN_DIAMETERS = 4f;
+    private final static int MAX_CELLS_PER_AXIS = 64;
+
+    // Holes in meters
+    private float[] holeX = new float[0];
+    private float[] holeY = new float[0];
+    private float[] holeRadius2 = new float[0];
+    private int holeCount;
+
+    // Obstacles in meters, the reach is the radius of the obstacle plus the ball radius
+    private float[] obstacleX1 = new float[0];
+    private float[] obstacleY1 = new float[0];
+    private float[] obstacleX2 = new float[0];
+    private float[] obstacleY2 = new float[0];
+    private float[] obstacleReach = new float[0];
+    private int obstacleCount;
+
+    // Grid over the board
+    private float minX;
+    private float minY;
+    private float inverseCellSize;
+    private int columns = 1;
+    private int rows = 1;
+
+    // Compressed cell lists of holes and obstacles
+    private int[] holeStart = new int[2];
+    private int[] holeItems = new int[0];
+    private int[] obstacleStart = new int[2];
+    private int[] obstacleItems = new int[0];
+
+    // Bounding boxes of the shapes while building: min x, min y, max x, max y
+    private float[] boxes = new float[0];
+
+    /**
+     * Convert the level to meters for the given bounds and index its shapes.
+     *
+     * @param level        the level
+     * @param xMax         the horizontal bound
+     * @param yMax         the vertical bound
+     * @param ballDiameter the ball diameter
+     */
+    void build(final Level level, final float xMax, final float yMax, final float ballDiameter) {
+        final float scale = Level.getScale(xMax, yMax);
+        final float ballRadius = ballDiameter * 0.5f;
+
+        // Fit the grid to the bounds
+        final float cellSize = Math.max(ballDiameter * CELL_SIZE_IN_DIAMETERS,
+                2f * Math.max(xMax, yMax) / MAX_CELLS_PER_AXIS);
+        inverseCellSize = 1f / cellSize;
+        minX = -xMax;
+        minY = -yMax;
+        columns = Math.max(1, (int) Math.ceil(2f * xMax * inverseCellSize));
+        rows = Math.max(1, (int) Math.ceil(2f * yMax * inverseCellSize));
+
+        // Holes capture a ball whose center is inside
+        holeCount = level.getHoleCount();
+        if (holeX.length < holeCount) {
+            holeX = new float[holeCount];
+            holeY = new float[holeCount];
+            holeRadius2 = new float[holeCount];
+        }
+        ensureBoxes(Math.max(holeCount, level.getObstacleCount()));
+
+        for (int k = 0; k < holeCount; k++) {
+            final float x = level.getHoleX(k) * xMax;
+            final float y = level.getHoleY(k) * yMax;
+            final float radius = level.getHoleRadius(k) * scale;
+
+            holeX[k] = x;
+            holeY[k] = y;
+            holeRadius2[k] = radius * radius;
+            setBox(k, x, y, x, y, radius);
+        }
+        holeStart = ensureLength(holeStart, columns * rows + 1);
+        holeItems = index(holeCount, holeStart, holeItems);
+
+        // Obstacles push a ball away as soon as it touches them
+        obstacleCount = level.getObstacleCount();
+        if (obstacleX1.length < obstacleCount) {
+            obstacleX1 = new float[obstacleCount];
+            obstacleY1 = new float[obstacleCount];
+            obstacleX2 = new float[obstacleCount];
+            obstacleY2 = new float[obstacleCount];
+            obstacleReach = new float[obstacleCount];
+        }
+
+        for (int k = 0; k < obstacleCount; k++) {
+            final float x1 = level.getObstacleX1(k) * xMax;
+            final float y1 = level.getObstacleY1(k) * yMax;
+            final float x2 = level.getObstacleX2(k) * xMax;
+            final float y2 = level.getObstacleY2(k) * yMax;
+            final float reach = level.getObstacleRadius(k) * scale + ballRadius;
+
+            obstacleX1[k] = x1;
+            obstacleY1[k] = y1;
+            obstacleX2[k] = x2;
+            obstacleY2[k] = y2;
+            obstacleReach[k] = reach;
+            setBox(k, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), reach);
+        }
+        obstacleStart = ensureLength(obstacleStart, columns * rows + 1);
+        obstacleItems = index(obstacleCount, obstacleStart, obstacleItems);
+    }
+
+    /**
+     * Checks if a position is inside one of the holes.
+     *
+     * @param x the relative x position
+     * @param y the relative y position
+     * @return true if the position is captured
+     */
+    boolean isInHole(final float x, final float y) {
+        if (holeCount == 0) {
+            return false;
+        }
+
+        final int cell = getCell(x, y);
+
+        for (int item = holeStart[cell], end = holeStart[cell + 1]; item < end; item++) {
+            final int k = holeItems[item];
+            final float dx = x - holeX[k];
+            final float dy = y - holeY[k];
+
+            if (dx * dx + dy * dy < holeRadius2[k]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if a ball at the given position would touch an obstacle.
+     *
+     * @param x the relative x position
+     * @param y the relative y position
+     * @return true if the position is blocked
+     */
+    boolean isBlocked(final float x, final float y) {
+        if (obstacleCount == 0) {
+            return false;
+        }
+
+        final int cell = getCell(x, y);
+
+        for (int item = obstacleStart[cell], end = obstacleStart[cell + 1]; item < end; item++) {
+            final int k = obstacleItems[item];
+            final float t = closest(k, x, y);
+            final float dx = x - (obstacleX1[k] + t * (obstacleX2[k] - obstacleX1[k]));
+            final float dy = y - (obstacleY1[k] + t * (obstacleY2[k] - obstacleY1[k]));
+
+            if (dx * dx + dy * dy < obstacleReach[k] * obstacleReach[k]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Push every awake ball which overlaps an obstacle out to the surface of the obstacle.
+     *
+     * @param store the particle store
+     */
+    void resolveObstacles(final ParticleStore store) {
+        if (obstacleCount == 0) {
+            return;
+        }
+
+        final float[] posX = store.getPosX();
+        final float[] posY = store.getPosY();
+        final int count = store.size();
+
+        for (int i = 0; i < count; i++) {
+            if (!store.isAlive(i) || store.isAsleep(i)) {
+                continue;
+            }
+
+            final int cell = getCell(posX[i], posY[i]);
+
+            for (int item = obstacleStart[cell], end = obstacleStart[cell + 1]; item < end; item++) {
+                resolveObstacle(obstacleItems[item], posX, posY, i);
+            }
+        }
+    }
+
+    private void resolveObstacle(final int k, final float[] posX, final float[] posY, final int i) {
+        // Closest point of the segment to the ball
+        final float t = closest(k, posX[i], posY[i]);
+        final float cx = obstacleX1[k] + t * (obstacleX2[k] - obstacleX1[k]);
+        final float cy = obstacleY1[k] + t * (obstacleY2[k] - obstacleY1[k]);
+
+        final float dx = posX[i] - cx;
+        final float dy = posY[i] - cy;
+        final float dd = dx * dx + dy * dy;
+        final float reach = obstacleReach[k];
+
+        if (dd >= reach * reach) {
+            return;
+        }
+
+        if (dd > 0f) {
+            // Move the ball along the normal until it only touches the obstacle
+            final float c = reach / (float) Math.sqrt(dd);
+            posX[i] = cx + dx * c;
+            posY[i] = cy + dy * c;
+        } else {
+            // Ball exactly on the center line, push it upwards
+            posY[i] = cy + reach;
+        }
+    }
+
+    /**
+     * Gets the parameter of the point of the k-th segment which is closest to the position.
+     */
+    private float closest(final int k, final float x, final float y) {
+        final float sx = obstacleX2[k] - obstacleX1[k];
+        final float sy = obstacleY2[k] - obstacleY1[k];
+        final float length2 = sx * sx + sy * sy;
+
+        // Round obstacles have both ends on the center
+        if (length2 == 0f) {
+            return 0f;
+        }
+
+        final float t = ((x - obstacleX1[k]) * sx + (y - obstacleY1[k]) * sy) / length2;
+        return Math.max(0f, Math.min(1f, t));
+    }
+
+    /**
+     * Sort the shapes with the bounding boxes in {@link #boxes} into the cells.
+     *
+     * @param count the number of shapes
+     * @param start the start of the cell lists, filled by this method
+     * @param items the current items, reused if they are large enough
+     * @return the items
+     */
+    private int[] index(final int count, final int[] start, int[] items) {
+        final int cells = columns * rows;
+        Arrays.fill(start, 0, cells + 1, 0);
+
+        // Count the shapes of each cell, shifted by one
+        int total = 0;
+        for (int k = 0; k < count; k++) {
+            for (int row = getRow(boxes[4 * k + 1]), toRow = getRow(boxes[4 * k + 3]); row <= toRow; row++) {
+                for (int column = getColumn(boxes[4 * k]), toColumn = getColumn(boxes[4 * k + 2]); column <= toColumn; column++) {
+                    start[row * columns + column + 1]++;
+                    total++;
+                }
+            }
+        }
+
+        // Prefix sum, so every cell knows where its list starts
+        for (int cell = 0; cell < cells; cell++) {
+            start[cell + 1] += start[cell];
+        }
+
+        if (items.length < total) {
+            items = new int[total];
+        }
+
+        // Fill the lists, the start of each cell is advanced while filling and moved back afterwards
+        for (int k = 0; k < count; k++) {
+            for (int row = getRow(boxes[4 * k + 1]), toRow = getRow(boxes[4 * k + 3]); row <= toRow; row++) {
+                for (int column = getColumn(boxes[4 * k]), toColumn = getColumn(boxes[4 * k + 2]); column <= toColumn; column++) {
+                    items[start[row * columns + column]++] = k;
+                }
+            }
+        }
+        for (int cell = cells; cell > 0; cell--) {
+            start[cell] = start[cell - 1];
+        }
+        start[0] = 0;
+
+        return items;
+    }
+
+    private void setBox(final int k, final float x1, final float y1, final float x2, final float y2, final float margin) {
+        boxes[4 * k] = x1 - margin;
+        boxes[4 * k + 1] = y1 - margin;
+        boxes[4 * k + 2] = x2 + margin;
+        boxes[4 * k + 3] = y2 + margin;
+    }
+
+    private void ensureBoxes(final int count) {
+        if (boxes.length < 4 * count) {
+            boxes = new float[4 * count];
+        }
+    }
+
+    private static int[] ensureLength(final int[] array, final int length) {
+        return array.length < length ? new int[length] : array;
+    }
+
+    private int getColumn(final float x) {
+        final int column = (int) ((x - minX) * inverseCellSize);
+        return Math.max(0, Math.min(columns - 1, column));
+    }
+
+    private int getRow(final float y) {
+        final int row = (int) ((y - minY) * inverseCellSize);
+        return Math.max(0, Math.min(rows - 1, row));
+    }
+
+    private int getCell(final float x, final float y) {
+        return getRow(y) * columns + getColumn(x);
+    }
+}
@@ -0,0 +1,106 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.Arrays;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Copy of the particle positions at the end of a simulation step. A snapshot is
+ * filled by the simulation thread and only read by the render thread once it was
+ * published through a {@link SnapshotBuffer}. The positions are indexed by the
+ * particle id, so they can be matched to views even after the store was compacted.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class ParticleSnapshot {
+
+    private float[] posX = new float[0];
+    private float[] posY = new float[0];
+    private boolean[] alive = new boolean[0];
+
+    private int size;
+    private long timestamp;
+
+    /**
+     * Copy the current state of the particle store into this snapshot.
+     *
+     * @param store     the particle store
+     * @param timestamp the simulation timestamp in nanoseconds
+     */
+    public void copyFrom(final ParticleStore store, final long timestamp) {
+        final int size = store.getIdCount();
+
+        if (posX.length < size) {
+            posX = Arrays.copyOf(posX, size);
+            posY = Arrays.copyOf(posY, size);
+            alive = Arrays.copyOf(alive, size);
+        }
+
+        Arrays.fill(alive, 0, size, false);
+
+        final float[] storeX = store.getPosX();
+        final float[] storeY = store.getPosY();
+        final int count = store.size();
+
+        for (int i = 0; i < count; i++) {
+            if (store.isAlive(i)) {
+                final int id = store.getId(i);
+                posX[id] = storeX[i];
+                posY[id] = storeY[i];
+                alive[id] = true;
+            }
+        }
+
+        this.size = size;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Gets number of particle ids in the snapshot, including removed particles.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets simulation timestamp of the snapshot.
+     *
+     * @return the timestamp in nanoseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Checks if the particle with the given id is alive.
+     *
+     * @param i the particle id
+     * @return true if the particle is alive
+     */
+    public boolean isAlive(final int i) {
+        return alive[i];
+    }
+
+    /**
+     * Gets relative x position of a specific particle.
+     *
+     * @param i the particle id
+     * @return the x position
+     */
+    public float getPosX(final int i) {
+        return posX[i];
+    }
+
+    /**
+     * Gets relative y position of a specific particle.
+     *
+     * @param i the particle id
+     * @return the y position
+     */
+    public float getPosY(final int i) {
+        return posY[i];
+    }
+}
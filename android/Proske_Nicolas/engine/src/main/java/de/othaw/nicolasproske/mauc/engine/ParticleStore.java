@@ -0,0 +1,461 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.Arrays;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Structure-of-arrays storage for the simulated particles. Position and velocity
+ * of the i-th ball are kept in parallel primitive arrays so the physics loops run
+ * over contiguous memory instead of chasing one object per ball.
+ * <p>
+ * Every particle has a stable id besides its index. Removed particles are compacted
+ * away by moving the last particle into the free slot, their ids are kept in a pool
+ * and handed out again to the next added particle.
+ * <p>
+ * Particles which stay at rest for a while are put to sleep. Sleeping particles are
+ * neither integrated nor constrained until something wakes them again.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class ParticleStore {
+
+    // Relative x-/y position of each particle in meters
+    private float[] posX;
+    private float[] posY;
+
+    // x-/y velocity of each particle
+    private float[] velX;
+    private float[] velY;
+
+    // Whether the particle at the index is still part of the simulation
+    private boolean[] alive;
+
+    // Stable id of each particle
+    private int[] ids;
+
+    // Sleep state: position at the start of the step, position where the rest began
+    // and number of steps the particle stayed at rest
+    private boolean[] asleep;
+    private float[] lastX;
+    private float[] lastY;
+    private float[] anchorX;
+    private float[] anchorY;
+    private int[] restSteps;
+    private int sleepingCount;
+
+    // Ids of removed particles which can be reused
+    private int[] freeIds;
+    private int freeCount;
+    private int nextId;
+
+    private int size;
+    private int aliveCount;
+
+    /**
+     * Instantiates a new Particle store.
+     *
+     * @param capacity the initial number of particles which can be stored without growing
+     */
+    public ParticleStore(final int capacity) {
+        posX = new float[capacity];
+        posY = new float[capacity];
+        velX = new float[capacity];
+        velY = new float[capacity];
+        alive = new boolean[capacity];
+        ids = new int[capacity];
+        freeIds = new int[capacity];
+        asleep = new boolean[capacity];
+        lastX = new float[capacity];
+        lastY = new float[capacity];
+        anchorX = new float[capacity];
+        anchorY = new float[capacity];
+        restSteps = new int[capacity];
+    }
+
+    /**
+     * Add a particle at the given position with no speed.
+     * The particle gets a pooled id if one is available, otherwise a new one.
+     *
+     * @param x the relative x position
+     * @param y the relative y position
+     * @return the index of the added particle
+     */
+    public int add(final float x, final float y) {
+        if (size == posX.length) {
+            grow();
+        }
+
+        final int i = size++;
+        posX[i] = x;
+        posY[i] = y;
+        velX[i] = 0f;
+        velY[i] = 0f;
+        alive[i] = true;
+        ids[i] = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        asleep[i] = false;
+        lastX[i] = anchorX[i] = x;
+        lastY[i] = anchorY[i] = y;
+        restSteps[i] = 0;
+        aliveCount++;
+
+        return i;
+    }
+
+    /**
+     * Mark the particle at the given index as removed from the simulation.
+     * The slot stays in place until the next {@link #compact()}, so indices
+     * of other particles do not change in between.
+     *
+     * @param i the i-th particle
+     */
+    public void kill(final int i) {
+        if (alive[i]) {
+            alive[i] = false;
+            aliveCount--;
+        }
+
+        if (asleep[i]) {
+            asleep[i] = false;
+            sleepingCount--;
+        }
+    }
+
+    /**
+     * Remove all killed particles by moving the last alive particle into their slot
+     * and return their ids to the pool. Afterwards the indices of moved particles
+     * have changed, their ids stay the same.
+     *
+     * @return the number of removed particles
+     */
+    public int compact() {
+        final int removed = size - aliveCount;
+
+        if (removed == 0) {
+            return 0;
+        }
+
+        int i = 0;
+        while (i < size) {
+            if (alive[i]) {
+                i++;
+                continue;
+            }
+
+            // Return the id to the pool
+            if (freeCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, Math.max(16, freeIds.length * 2));
+            }
+            freeIds[freeCount++] = ids[i];
+
+            // Move the last particle into the free slot, it is checked again in the next round
+            final int last = --size;
+            posX[i] = posX[last];
+            posY[i] = posY[last];
+            velX[i] = velX[last];
+            velY[i] = velY[last];
+            alive[i] = alive[last];
+            ids[i] = ids[last];
+            asleep[i] = asleep[last];
+            lastX[i] = lastX[last];
+            lastY[i] = lastY[last];
+            anchorX[i] = anchorX[last];
+            anchorY[i] = anchorY[last];
+            restSteps[i] = restSteps[last];
+            alive[last] = false;
+            asleep[last] = false;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Compute physics for all alive particles which are awake and update their vectors.
+     *
+     * @param sx the mouse acceleration in x direction
+     * @param sy the mouse acceleration in y direction
+     * @param dT the dt
+     */
+    public void computePhysics(final float sx, final float sy, final float dT) {
+        final float ax = -sx / 5;
+        final float ay = -sy / 5;
+        final float dx = ax * dT * dT / 2;
+        final float dy = ay * dT * dT / 2;
+        final float dvx = ax * dT;
+        final float dvy = ay * dT;
+
+        final float[] posX = this.posX;
+        final float[] posY = this.posY;
+        final float[] velX = this.velX;
+        final float[] velY = this.velY;
+        final boolean[] alive = this.alive;
+        final boolean[] asleep = this.asleep;
+
+        for (int i = 0; i < size; i++) {
+            if (!alive[i] || asleep[i]) {
+                continue;
+            }
+
+            posX[i] += velX[i] * dT + dx;
+            posY[i] += velY[i] * dT + dy;
+
+            velX[i] += dvx;
+            velY[i] += dvy;
+        }
+    }
+
+    /**
+     * Resolving constraints and collisions with the Verlet integrator
+     * can be very simple, we simply need to move a colliding or
+     * constrained particle in such way that the constraint is
+     * satisfied.
+     *
+     * @param i    the i-th particle
+     * @param xMax the horizontal bound
+     * @param yMax the vertical bound
+     */
+    public void resolveCollisionWithBounds(final int i, final float xMax, final float yMax) {
+        final float x = posX[i];
+        final float y = posY[i];
+
+        if (x > xMax) {
+            posX[i] = xMax;
+            velX[i] = 0;
+        } else if (x < -xMax) {
+            posX[i] = -xMax;
+            velX[i] = 0;
+        }
+
+        if (y > yMax) {
+            posY[i] = yMax;
+            velY[i] = 0;
+        } else if (y < -yMax) {
+            posY[i] = -yMax;
+            velY[i] = 0;
+        }
+    }
+
+    /**
+     * Remember the current positions as start of the step, used by {@link #updateSleep(float, float, int)}.
+     */
+    public void saveLastPositions() {
+        System.arraycopy(posX, 0, lastX, 0, size);
+        System.arraycopy(posY, 0, lastY, 0, size);
+    }
+
+    /**
+     * Derive the velocity of every awake particle from the distance it moved since
+     * {@link #saveLastPositions()}, so corrections of the constraints also correct the
+     * velocity and balls resting on each other don't gain speed forever.
+     *
+     * @param dT the length of the step in seconds
+     */
+    public void updateVelocities(final float dT) {
+        final float inverseDT = 1f / dT;
+
+        for (int i = 0; i < size; i++) {
+            if (!alive[i] || asleep[i]) {
+                continue;
+            }
+
+            velX[i] = (posX[i] - lastX[i]) * inverseDT;
+            velY[i] = (posY[i] - lastY[i]) * inverseDT;
+        }
+    }
+
+    /**
+     * Put particles to sleep which stayed at rest. A particle is at rest if it moved less than
+     * maxStepDistance since {@link #saveLastPositions()} and drifted less than maxDrift since
+     * its rest began. After stepsToSleep steps at rest its velocity is cleared and it sleeps.
+     *
+     * @param maxStepDistance the maximum distance moved in one step
+     * @param maxDrift        the maximum distance moved since the rest began
+     * @param stepsToSleep    the number of steps at rest before falling asleep
+     */
+    public void updateSleep(final float maxStepDistance, final float maxDrift, final int stepsToSleep) {
+        final float maxStepDistance2 = maxStepDistance * maxStepDistance;
+        final float maxDrift2 = maxDrift * maxDrift;
+        int sleeping = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (!alive[i]) {
+                continue;
+            }
+
+            if (asleep[i]) {
+                sleeping++;
+                continue;
+            }
+
+            final float x = posX[i];
+            final float y = posY[i];
+            final float sx = x - lastX[i];
+            final float sy = y - lastY[i];
+            final float ax = x - anchorX[i];
+            final float ay = y - anchorY[i];
+
+            // The particle moved, the rest starts again at the current position
+            if (sx * sx + sy * sy > maxStepDistance2 || ax * ax + ay * ay > maxDrift2) {
+                anchorX[i] = x;
+                anchorY[i] = y;
+                restSteps[i] = 0;
+            } else if (++restSteps[i] >= stepsToSleep) {
+                asleep[i] = true;
+                velX[i] = 0f;
+                velY[i] = 0f;
+                sleeping++;
+            }
+        }
+
+        sleepingCount = sleeping;
+    }
+
+    /**
+     * Wake the particle at the given index. Does not update the sleeping count,
+     * which is recounted on the next {@link #updateSleep(float, float, int)}.
+     * Can be called concurrently for different particles.
+     *
+     * @param i the i-th particle
+     */
+    public void wake(final int i) {
+        asleep[i] = false;
+        restSteps[i] = 0;
+        anchorX[i] = posX[i];
+        anchorY[i] = posY[i];
+    }
+
+    /**
+     * Wake all particles, e.g. after the input or the bounds changed.
+     */
+    public void wakeAll() {
+        if (sleepingCount == 0) {
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (asleep[i]) {
+                wake(i);
+            }
+        }
+        sleepingCount = 0;
+    }
+
+    private void grow() {
+        final int capacity = Math.max(16, posX.length * 2);
+        posX = Arrays.copyOf(posX, capacity);
+        posY = Arrays.copyOf(posY, capacity);
+        velX = Arrays.copyOf(velX, capacity);
+        velY = Arrays.copyOf(velY, capacity);
+        alive = Arrays.copyOf(alive, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        asleep = Arrays.copyOf(asleep, capacity);
+        lastX = Arrays.copyOf(lastX, capacity);
+        lastY = Arrays.copyOf(lastY, capacity);
+        anchorX = Arrays.copyOf(anchorX, capacity);
+        anchorY = Arrays.copyOf(anchorY, capacity);
+        restSteps = Arrays.copyOf(restSteps, capacity);
+    }
+
+    /**
+     * Gets number of used slots, including killed particles which were not compacted yet.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets number of ids handed out so far, all ids are below this value.
+     *
+     * @return the id count
+     */
+    public int getIdCount() {
+        return nextId;
+    }
+
+    /**
+     * Gets id of the particle at the given index.
+     *
+     * @param i the i-th particle
+     * @return the id
+     */
+    public int getId(final int i) {
+        return ids[i];
+    }
+
+    /**
+     * Gets number of particles which are still alive.
+     *
+     * @return the alive count
+     */
+    public int getAliveCount() {
+        return aliveCount;
+    }
+
+    /**
+     * Gets number of sleeping particles as of the last sleep update.
+     *
+     * @return the sleeping count
+     */
+    public int getSleepingCount() {
+        return sleepingCount;
+    }
+
+    /**
+     * Checks if the particle at the given index is asleep.
+     *
+     * @param i the i-th particle
+     * @return true if the particle is asleep
+     */
+    public boolean isAsleep(final int i) {
+        return asleep[i];
+    }
+
+    /**
+     * Checks if the particle at the given index is alive.
+     *
+     * @param i the i-th particle
+     * @return true if the particle is alive
+     */
+    public boolean isAlive(final int i) {
+        return alive[i];
+    }
+
+    /**
+     * Gets the x positions. The array is shared, only the first {@link #size()} entries are valid.
+     *
+     * @return the x positions
+     */
+    public float[] getPosX() {
+        return posX;
+    }
+
+    /**
+     * Gets the y positions. The array is shared, only the first {@link #size()} entries are valid.
+     *
+     * @return the y positions
+     */
+    public float[] getPosY() {
+        return posY;
+    }
+
+    /**
+     * Gets the x velocities. The array is shared, only the first {@link #size()} entries are valid.
+     *
+     * @return the x velocities
+     */
+    public float[] getVelX() {
+        return velX;
+    }
+
+    /**
+     * Gets the y velocities. The array is shared, only the first {@link #size()} entries are valid.
+     *
+     * @return the y velocities
+     */
+    public float[] getVelY() {
+        return velY;
+    }
+}
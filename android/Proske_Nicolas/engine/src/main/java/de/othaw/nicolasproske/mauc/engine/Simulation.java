@@ -0,0 +1,661 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Headless ball simulation without any Android dependency. It integrates the balls
+ * with the tilt of the board, resolves ball by ball collisions and the bounds, captures
+ * balls in the hole and counts the score. All lengths are in meters relative to the
+ * center of the board.
+ * <p>
+ * The simulation is stepped by a single thread, either in steps of a given length with
+ * {@link #step(float, float, float)} or driven by a monotonic clock with
+ * {@link #advance(float, float, long)}. With {@link #advance(InputSource, long)} the tilt
+ * is taken from an input source at the time of each step instead. Bounds, hole and modes
+ * may be changed from other threads, positions are read by other threads through the
+ * published snapshots.
+ * <p>
+ * Besides the hole which can be moved by the player, a {@link Level} adds static holes
+ * and obstacles, which are found through a static spatial index.
+ * <p>
+ * Balls which stay at rest are put to sleep and skipped until an awake ball hits them,
+ * the tilt changes or the bounds or the hole are changed.
+ * <p>
+ * The collisions are resolved in passes until the deepest penetration falls below a
+ * tolerance. The pairs which touched in the previous step are resolved first, so piles
+ * need fewer passes. Number of passes and remaining penetration of the last step are
+ * kept as metrics.
+ *
+ * @author Nicolas Proske
+ * @author googlearchive (The Android Open Source Project)
+ * @version 20.06.2020
+ */
+public final class Simulation {
+
+    // Default length of one simulation step and maximum number of steps per advance
+    public final static long DEFAULT_STEP_NANOS = 1_000_000_000L / 120;
+    public final static int DEFAULT_MAX_SUB_STEPS = 8;
+
+    // We do no more than a limited number of iterations per step
+    public final static int DEFAULT_MAX_ITERATIONS = 10;
+
+    // Iterations stop as soon as no balls overlap deeper than this fraction of the diameter,
+    // it has to stay above the entropy of the collisions (about 2 % of the diameter)
+    public final static float DEFAULT_TOLERANCE = 0.03f;
+
+    // Number of random positions tried when a ball is respawned
+    private final static int MAX_SPAWN_ATTEMPTS = 8;
+
+    // A ball is at rest if it is slower than this speed in meters per second,
+    // drifts less than this distance in meters and stays like that for a number of steps
+    private final static float SLEEP_SPEED = 0.01f;
+    private final static float SLEEP_DRIFT = 0.0002f;
+    private final static int SLEEP_STEPS = 60;
+
+    // Change of the tilt which wakes all balls
+    private final static float WAKE_TILT_DELTA = 0.01f;
+
+    private final float ballDiameter;
+
+    // Physical state of all balls
+    private final ParticleStore store;
+
+    // Broad-phase for the ball by ball collisions and the bounds it was built for
+    private final SpatialGrid grid;
+    private float gridHorizontalBound, gridVerticalBound;
+
+    // Resolves collisions on the grid, serial or on all cores
+    private final CollisionSolver solver;
+
+    // Static holes and obstacles, converted to meters for the bounds of the grid
+    private final LevelIndex levelIndex = new LevelIndex();
+    private Level indexedLevel;
+
+    // Fixed timestep clock driving advance
+    private final SimulationClock clock = new SimulationClock(DEFAULT_STEP_NANOS, DEFAULT_MAX_SUB_STEPS);
+
+    // Hand-off of the particle positions to other threads
+    private final SnapshotBuffer snapshots = new SnapshotBuffer();
+
+    // Tilt read from the input source for each step
+    private final InputSample inputSample = new InputSample();
+
+    // Time at which the last step of advance(InputSource, long) read the input
+    private long lastStepTime;
+
+    // Random positions of respawned balls
+    private final Random random;
+
+    private volatile float horizontalBound, verticalBound;
+    private volatile float holeX, holeY, holeRadius;
+    private volatile Level level = Level.EMPTY;
+
+    // Whether captured balls are spawned again instead of removed
+    private volatile boolean respawn;
+
+    // Whether balls at rest are put to sleep, and the tilt they fell asleep with
+    private volatile boolean sleepEnabled = true;
+    private final AtomicBoolean wakeRequested = new AtomicBoolean();
+    private float restTiltX, restTiltY;
+
+    private volatile int maxIterations = DEFAULT_MAX_ITERATIONS;
+    private volatile float tolerance = DEFAULT_TOLERANCE;
+    private volatile boolean warmStart = true;
+
+    // Metrics of the last step: solver passes and deepest penetration relative to the diameter
+    private volatile int lastIterations;
+    private volatile float lastResidual;
+
+    private volatile int score;
+    private int stepCount;
+
+    private volatile SimulationListener listener;
+
+    /**
+     * Instantiates a new Simulation with a random seed.
+     *
+     * @param ballDiameter the ball diameter
+     * @param capacity     the number of balls which can be added without growing
+     */
+    public Simulation(final float ballDiameter, final int capacity) {
+        this(ballDiameter, capacity, new Random(), new CollisionSolver());
+    }
+
+    /**
+     * Instantiates a new Simulation.
+     *
+     * @param ballDiameter the ball diameter
+     * @param capacity     the number of balls which can be added without growing
+     * @param random       the source of the respawn positions
+     * @param solver       the collision solver
+     */
+    public Simulation(final float ballDiameter, final int capacity, final Random random, final CollisionSolver solver) {
+        this.ballDiameter = ballDiameter;
+        this.store = new ParticleStore(capacity);
+        // A cell of the size of one ball contains all possible collision partners in its neighbourhood
+        this.grid = new SpatialGrid(ballDiameter);
+        this.random = random;
+        this.solver = solver;
+    }
+
+    /**
+     * Add a ball at the given position with no speed.
+     * Must not be called while another thread steps the simulation.
+     *
+     * @param x the relative x position
+     * @param y the relative y position
+     * @return the id of the ball
+     */
+    public int addParticle(final float x, final float y) {
+        return store.getId(store.add(x, y));
+    }
+
+    /**
+     * Advance the simulation to the given timestamp. The elapsed time is
+     * simulated in steps of fixed length, so the result does not depend on
+     * how often this method is called. Afterwards the new positions are
+     * published as snapshot.
+     *
+     * @param sx        the acceleration in x direction
+     * @param sy        the acceleration in y direction
+     * @param timestamp the current monotonic timestamp in nanoseconds
+     * @return the number of performed steps
+     */
+    public int advance(final float sx, final float sy, final long timestamp) {
+        final int steps = clock.advance(timestamp);
+        final float dT = clock.getStepSeconds();
+
+        for (int i = 0; i < steps; i++) {
+            step(sx, sy, dT);
+        }
+
+        if (steps > 0) {
+            publishSnapshot(timestamp);
+        }
+
+        return steps;
+    }
+
+    /**
+     * Advance the simulation to the given timestamp like {@link #advance(float, float, long)},
+     * but read the tilt for each step from the input source at the time of that step. So the
+     * steps follow input which arrives faster than the frames.
+     *
+     * @param input     the input source
+     * @param timestamp the current monotonic timestamp in nanoseconds
+     * @return the number of performed steps
+     */
+    public int advance(final InputSource input, final long timestamp) {
+        final int steps = clock.advance(timestamp);
+        final float dT = clock.getStepSeconds();
+        final long stepNanos = clock.getStepNanos();
+
+        // The time which did not fill a whole step stays in the clock
+        lastStepTime = timestamp - (stepNanos - clock.getRemainingNanos());
+
+        for (int i = 0; i < steps; i++) {
+            final long stepTime = lastStepTime - (steps - 1 - i) * stepNanos;
+            if (input.sample(stepTime, inputSample)) {
+                step(inputSample.getX(), inputSample.getY(), dT);
+            } else {
+                step(0f, 0f, dT);
+            }
+        }
+
+        if (steps > 0) {
+            publishSnapshot(timestamp);
+        }
+
+        return steps;
+    }
+
+    /**
+     * Performs one iteration of the simulation. First updating the
+     * position of all the particles and resolving the constraints and
+     * collisions.
+     *
+     * @param sx the acceleration in x direction
+     * @param sy the acceleration in y direction
+     * @param dT the length of the simulation step in seconds
+     */
+    public void step(final float sx, final float sy, final float dT) {
+        final boolean sleep = sleepEnabled;
+
+        // Wake everything if the world around the sleeping balls changed
+        if (wakeRequested.getAndSet(false) || !sleep
+                || Math.abs(sx - restTiltX) > WAKE_TILT_DELTA || Math.abs(sy - restTiltY) > WAKE_TILT_DELTA) {
+            store.wakeAll();
+            restTiltX = sx;
+            restTiltY = sy;
+        }
+        store.saveLastPositions();
+
+        final float xMax = horizontalBound;
+        final float yMax = verticalBound;
+        final Level level = this.level;
+
+        // Fit the grid and the level to the current bounds
+        final boolean resized = xMax != gridHorizontalBound || yMax != gridVerticalBound;
+        if (resized) {
+            grid.resize(xMax, yMax);
+            gridHorizontalBound = xMax;
+            gridVerticalBound = yMax;
+        }
+        if (resized || level != indexedLevel) {
+            levelIndex.build(level, xMax, yMax, ballDiameter);
+            indexedLevel = level;
+        }
+
+        // update the system's positions
+        updatePositions(sx, sy, dT);
+
+        final int iterations = maxIterations;
+        final float maxPenetration = tolerance * ballDiameter;
+        final int seed = stepCount * (iterations + 1);
+
+        // Separate the pairs of the previous step first
+        if (warmStart) {
+            solver.warmStart(store, ballDiameter, xMax, yMax, seed);
+        }
+
+        /*
+         * Resolve collisions, each particle is tested against the
+         * particles in its own and the adjacent cells of the grid.
+         * If a collision is detected the particle is moved away using
+         * a virtual spring of infinite stiffness.
+         */
+        float penetration;
+        int k = 0;
+
+        do {
+            // Move the balls to the cells of their current position
+            grid.update(store);
+
+            penetration = solver.solve(store, grid, ballDiameter, xMax, yMax, seed + 1 + k);
+            levelIndex.resolveObstacles(store);
+            k++;
+        } while (k < iterations && penetration > maxPenetration);
+        stepCount++;
+
+        lastIterations = k;
+        lastResidual = penetration / ballDiameter;
+
+        // Collisions and bounds moved the balls, their velocity has to follow
+        store.updateVelocities(dT);
+
+        if (sleep) {
+            store.updateSleep(SLEEP_SPEED * dT, SLEEP_DRIFT, SLEEP_STEPS);
+        }
+    }
+
+    /**
+     * Update the position of each particle in the system using the Verlet integrator.
+     * The Verlet algorithm is a method for the numerical solution of Newton's equations of motion.
+     * Check if balls met the hole - if so, remove them all at once and respawn them
+     * if the respawn mode is enabled.
+     */
+    private void updatePositions(final float sx, final float sy, final float dT) {
+        // Recompute the position of each ball
+        store.computePhysics(sx, sy, dT);
+
+        final float[] posX = store.getPosX();
+        final float[] posY = store.getPosY();
+        final int count = store.size();
+
+        final float circleX = holeX;
+        final float circleY = holeY;
+        final float circleRadius2 = holeRadius * holeRadius;
+
+        for (int i = 0; i < count; i++) {
+            final float ballDx = posX[i] - circleX;
+            final float ballDy = posY[i] - circleY;
+
+            // Check if ball is in the hole or in one of the holes of the level
+            if ((ballDx * ballDx + ballDy * ballDy) < circleRadius2 || levelIndex.isInHole(posX[i], posY[i])) {
+                store.kill(i);
+            }
+        }
+
+        // Remove all captured balls in one go, their ids go back to the pool
+        final int scored = store.compact();
+
+        if (scored == 0) {
+            return;
+        }
+
+        // Indices of moved balls changed, so the grid and the known contacts have to be rebuilt
+        grid.clear();
+        solver.clearContacts();
+
+        // Reuse the pooled ids of the captured balls
+        if (respawn) {
+            for (int i = 0; i < scored; i++) {
+                spawn();
+            }
+        }
+
+        // Update count of scored balls by adding the captured balls to the score
+        score += scored;
+
+        final SimulationListener listener = this.listener;
+        if (listener != null) {
+            listener.onScored(scored, score);
+        }
+    }
+
+    /**
+     * Add a ball at a random position inside the bounds which is not in a hole or an obstacle.
+     */
+    private void spawn() {
+        final float xMax = horizontalBound;
+        final float yMax = verticalBound;
+        final float circleRadius2 = holeRadius * holeRadius;
+
+        float x, y, dx, dy;
+        int attempts = 0;
+
+        // Retry a few times if the position is in a hole or an obstacle, e.g. if the hole covers most of the board
+        do {
+            x = (random.nextFloat() * 2f - 1f) * xMax;
+            y = (random.nextFloat() * 2f - 1f) * yMax;
+            dx = x - holeX;
+            dy = y - holeY;
+        } while ((dx * dx + dy * dy < circleRadius2 || levelIndex.isInHole(x, y) || levelIndex.isBlocked(x, y))
+                && ++attempts < MAX_SPAWN_ATTEMPTS);
+
+        store.add(x, y);
+    }
+
+    /**
+     * Publish the current positions, they become visible to {@link SnapshotBuffer#acquire()}.
+     *
+     * @param timestamp the timestamp of the snapshot in nanoseconds
+     */
+    public void publishSnapshot(final long timestamp) {
+        snapshots.getBack().copyFrom(store, timestamp);
+        snapshots.publish();
+    }
+
+    /**
+     * Sets the bounds of the board. Balls are kept between -xMax and xMax and -yMax and yMax.
+     *
+     * @param xMax the horizontal bound
+     * @param yMax the vertical bound
+     */
+    public void setBounds(final float xMax, final float yMax) {
+        this.horizontalBound = xMax;
+        this.verticalBound = yMax;
+        wakeRequested.set(true);
+    }
+
+    /**
+     * Sets the hole. Balls whose center is inside the hole are captured.
+     *
+     * @param x      the relative x position of the center
+     * @param y      the relative y position of the center
+     * @param radius the radius
+     */
+    public void setHole(final float x, final float y, final float radius) {
+        this.holeX = x;
+        this.holeY = y;
+        this.holeRadius = radius;
+        wakeRequested.set(true);
+    }
+
+    /**
+     * Gets level.
+     *
+     * @return the level
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the level with the static holes and obstacles. It is converted to the
+     * current bounds on the next step.
+     *
+     * @param level the level, {@link Level#EMPTY} for a board without any
+     */
+    public void setLevel(final Level level) {
+        this.level = level;
+        wakeRequested.set(true);
+    }
+
+    /**
+     * Gets ball diameter.
+     *
+     * @return the ball diameter
+     */
+    public float getBallDiameter() {
+        return ballDiameter;
+    }
+
+    /**
+     * Gets horizontal bound.
+     *
+     * @return the horizontal bound
+     */
+    public float getHorizontalBound() {
+        return horizontalBound;
+    }
+
+    /**
+     * Gets vertical bound.
+     *
+     * @return the vertical bound
+     */
+    public float getVerticalBound() {
+        return verticalBound;
+    }
+
+    /**
+     * Gets current count of captured balls.
+     *
+     * @return the score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Checks if captured balls are respawned.
+     *
+     * @return true if the respawn mode is enabled
+     */
+    public boolean isRespawn() {
+        return respawn;
+    }
+
+    /**
+     * Sets whether captured balls are respawned at a random position instead of removed.
+     * Respawned balls reuse the ids of captured balls, so the game can run forever.
+     *
+     * @param respawn true to enable the respawn mode
+     */
+    public void setRespawn(final boolean respawn) {
+        this.respawn = respawn;
+    }
+
+    /**
+     * Checks if balls at rest are put to sleep.
+     *
+     * @return true if sleeping is enabled
+     */
+    public boolean isSleepEnabled() {
+        return sleepEnabled;
+    }
+
+    /**
+     * Sets whether balls at rest are put to sleep. Disabling wakes all balls on the next step.
+     *
+     * @param sleepEnabled true to enable sleeping
+     */
+    public void setSleepEnabled(final boolean sleepEnabled) {
+        this.sleepEnabled = sleepEnabled;
+    }
+
+    /**
+     * Gets maximum number of solver iterations per step.
+     *
+     * @return the max iterations
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Sets maximum number of solver iterations per step.
+     *
+     * @param maxIterations the max iterations
+     */
+    public void setMaxIterations(final int maxIterations) {
+        if (maxIterations < 1) {
+            throw new IllegalArgumentException("At least one iteration is required: " + maxIterations);
+        }
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Gets solver tolerance.
+     *
+     * @return the tolerance relative to the ball diameter
+     */
+    public float getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets solver tolerance. The solver stops iterating once no balls overlap deeper
+     * than this fraction of the ball diameter, or the max iterations are reached.
+     *
+     * @param tolerance the tolerance relative to the ball diameter
+     */
+    public void setTolerance(final float tolerance) {
+        if (tolerance < 0f) {
+            throw new IllegalArgumentException("Tolerance must not be negative: " + tolerance);
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Checks if the contacts of the previous step are resolved first.
+     *
+     * @return true if warm starting is enabled
+     */
+    public boolean isWarmStart() {
+        return warmStart;
+    }
+
+    /**
+     * Sets whether the contacts of the previous step are resolved first.
+     *
+     * @param warmStart true to enable warm starting
+     */
+    public void setWarmStart(final boolean warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    /**
+     * Gets number of solver passes of the last step.
+     *
+     * @return the iterations of the last step
+     */
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    /**
+     * Gets deepest penetration found by the last solver pass of the last step.
+     *
+     * @return the residual relative to the ball diameter
+     */
+    public float getLastResidual() {
+        return lastResidual;
+    }
+
+    /**
+     * Gets solver mode.
+     *
+     * @return the solver mode
+     */
+    public CollisionSolver.Mode getSolverMode() {
+        return solver.getMode();
+    }
+
+    /**
+     * Sets solver mode, can be changed while the simulation is running.
+     *
+     * @param mode the solver mode
+     */
+    public void setSolverMode(final CollisionSolver.Mode mode) {
+        solver.setMode(mode);
+    }
+
+    /**
+     * Sets the listener receiving the events of the simulation.
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setListener(final SimulationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the time of the last step of {@link #advance(InputSource, long)}, at which it read the input.
+     * Only valid on the stepping thread.
+     *
+     * @return the monotonic time in nanoseconds
+     */
+    public long getLastStepTime() {
+        return lastStepTime;
+    }
+
+    /**
+     * Gets simulation clock. Only the stepping thread may use the clock.
+     *
+     * @return the simulation clock
+     */
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Gets the buffer with the latest published particle positions.
+     *
+     * @return the snapshot buffer
+     */
+    public SnapshotBuffer getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * Gets particle store. Only the stepping thread may access the store.
+     *
+     * @return the particle store
+     */
+    public ParticleStore getParticleStore() {
+        return store;
+    }
+
+    /**
+     * Gets number of balls which are still on the board.
+     *
+     * @return the particle count
+     */
+    public int getParticleCount() {
+        return store.getAliveCount();
+    }
+
+    /**
+     * Gets number of sleeping balls.
+     *
+     * @return the sleeping count
+     */
+    public int getSleepingCount() {
+        return store.getSleepingCount();
+    }
+}
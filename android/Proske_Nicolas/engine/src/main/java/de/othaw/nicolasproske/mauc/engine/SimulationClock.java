@@ -0,0 +1,142 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Fixed timestep clock of the simulation. The elapsed monotonic time is collected in an
+ * accumulator and handed out in steps of constant length, independent of the frame rate.
+ * The number of steps per advance is clamped, so after a long stall the simulation drops
+ * the lost time instead of trying to catch up forever.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class SimulationClock {
+
+    // Marks that no timestamp has been seen yet
+    private final static long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private long stepNanos;
+    private int maxSubSteps;
+
+    private long lastTimestamp = NO_TIMESTAMP;
+    private long accumulator;
+
+    /**
+     * Instantiates a new Simulation clock.
+     *
+     * @param stepNanos   the length of one simulation step in nanoseconds
+     * @param maxSubSteps the maximum number of steps per advance
+     */
+    public SimulationClock(final long stepNanos, final int maxSubSteps) {
+        setStepNanos(stepNanos);
+        setMaxSubSteps(maxSubSteps);
+    }
+
+    /**
+     * Advance the clock to the given timestamp.
+     *
+     * @param timestamp the current monotonic timestamp in nanoseconds, e.g. {@link System#nanoTime()}
+     * @return the number of steps the simulation has to perform
+     */
+    public int advance(final long timestamp) {
+        // The first timestamp only starts the clock
+        if (lastTimestamp == NO_TIMESTAMP) {
+            lastTimestamp = timestamp;
+            return 0;
+        }
+
+        // Ignore timestamps which go back in time
+        accumulator += Math.max(0L, timestamp - lastTimestamp);
+        lastTimestamp = timestamp;
+
+        int steps = (int) Math.min(accumulator / stepNanos, maxSubSteps);
+        accumulator -= steps * stepNanos;
+
+        // Drop the time we could not catch up with to avoid the spiral of death
+        if (steps == maxSubSteps && accumulator >= stepNanos) {
+            accumulator %= stepNanos;
+        }
+
+        return steps;
+    }
+
+    /**
+     * Reset the clock, the next advance only starts it again.
+     * Call this after the simulation was paused.
+     */
+    public void reset() {
+        lastTimestamp = NO_TIMESTAMP;
+        accumulator = 0L;
+    }
+
+    /**
+     * Gets the fraction of a step which is left in the accumulator.
+     * Can be used to interpolate between the last two simulation states.
+     *
+     * @return the interpolation factor between zero and one
+     */
+    public float getAlpha() {
+        return (float) accumulator / stepNanos;
+    }
+
+    /**
+     * Gets time until the next step is due.
+     *
+     * @return the remaining time in nanoseconds
+     */
+    public long getRemainingNanos() {
+        return stepNanos - accumulator;
+    }
+
+    /**
+     * Gets length of one step in seconds.
+     *
+     * @return the step in seconds
+     */
+    public float getStepSeconds() {
+        return stepNanos / 1e9f;
+    }
+
+    /**
+     * Gets length of one step in nanoseconds.
+     *
+     * @return the step in nanoseconds
+     */
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    /**
+     * Sets length of one step in nanoseconds.
+     *
+     * @param stepNanos the step in nanoseconds
+     */
+    public void setStepNanos(final long stepNanos) {
+        if (stepNanos <= 0) {
+            throw new IllegalArgumentException("Step must be positive: " + stepNanos);
+        }
+        this.stepNanos = stepNanos;
+    }
+
+    /**
+     * Gets maximum number of steps per advance.
+     *
+     * @return the max sub steps
+     */
+    public int getMaxSubSteps() {
+        return maxSubSteps;
+    }
+
+    /**
+     * Sets maximum number of steps per advance.
+     *
+     * @param maxSubSteps the max sub steps
+     */
+    public void setMaxSubSteps(final int maxSubSteps) {
+        if (maxSubSteps < 1) {
+            throw new IllegalArgumentException("At least one sub step is required: " + maxSubSteps);
+        }
+        this.maxSubSteps = maxSubSteps;
+    }
+}
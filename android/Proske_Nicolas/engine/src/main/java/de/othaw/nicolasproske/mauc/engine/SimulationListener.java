@@ -0,0 +1,21 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Receives events of a {@link Simulation}. The callbacks are invoked on the thread
+ * which steps the simulation and must return quickly.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public interface SimulationListener {
+
+    /**
+     * Called after balls were captured by the hole.
+     *
+     * @param scored the number of balls captured in this step
+     * @param score  the total number of captured balls
+     */
+    void onScored(int scored, int score);
+}
@@ -0,0 +1,61 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Lock-free triple buffer handing snapshots from the simulation thread to the
+ * render thread. The writer fills the back buffer and publishes it, the reader
+ * always gets the latest published snapshot. Neither side ever waits for the other.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class SnapshotBuffer {
+
+    // Set on the ready index if it was published but not yet acquired
+    private final static int FRESH = 4;
+    private final static int INDEX_MASK = 3;
+
+    private final ParticleSnapshot[] snapshots = {
+            new ParticleSnapshot(), new ParticleSnapshot(), new ParticleSnapshot()
+    };
+
+    // Index of the snapshot exchanged between writer and reader
+    private final AtomicInteger ready = new AtomicInteger(1);
+
+    // Only touched by the writer
+    private int back = 2;
+
+    // Only touched by the reader
+    private int front = 0;
+
+    /**
+     * Gets the snapshot which the writer may fill next.
+     *
+     * @return the back snapshot
+     */
+    public ParticleSnapshot getBack() {
+        return snapshots[back];
+    }
+
+    /**
+     * Publish the back snapshot, it becomes visible to the next {@link #acquire()}.
+     */
+    public void publish() {
+        back = ready.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Gets the latest published snapshot. The snapshot stays valid until the next acquire.
+     *
+     * @return the front snapshot
+     */
+    public ParticleSnapshot acquire() {
+        if ((ready.get() & FRESH) != 0) {
+            front = ready.getAndSet(front) & INDEX_MASK;
+        }
+        return snapshots[front];
+    }
+}
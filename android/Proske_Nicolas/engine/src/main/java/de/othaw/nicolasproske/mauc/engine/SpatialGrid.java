@@ -0,0 +1,236 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import java.util.Arrays;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Uniform grid over the simulation bounds used as broad-phase for the ball by ball collisions.
+ * The cell size equals the ball diameter, so two balls can only touch if they are in the same
+ * or in adjacent cells. Every cell keeps an intrusive doubly linked list of its particles, which
+ * lets {@link #update(ParticleStore)} relink only the particles which changed their cell.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class SpatialGrid {
+
+    // Marks an empty cell or the end of a cell list
+    public final static int NONE = -1;
+
+    private final float cellSize;
+    private final float inverseCellSize;
+
+    // Lower left corner of the grid in meters
+    private float minX;
+    private float minY;
+
+    private int columns = 1;
+    private int rows = 1;
+
+    // First particle of each cell
+    private int[] head = {NONE};
+
+    // Linked list of the particles, indexed like the particle store
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private int[] cellOf = new int[0];
+
+    /**
+     * Instantiates a new Spatial grid.
+     *
+     * @param cellSize the edge length of a cell in meters, at least the ball diameter
+     */
+    public SpatialGrid(final float cellSize) {
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+    }
+
+    /**
+     * Resize the grid to cover the area from -xMax to xMax and -yMax to yMax.
+     * All particles are removed from the grid and will be reinserted on the next update.
+     *
+     * @param xMax the horizontal bound
+     * @param yMax the vertical bound
+     */
+    public void resize(final float xMax, final float yMax) {
+        minX = -xMax;
+        minY = -yMax;
+        columns = Math.max(1, (int) Math.ceil(2f * xMax * inverseCellSize));
+        rows = Math.max(1, (int) Math.ceil(2f * yMax * inverseCellSize));
+
+        head = new int[columns * rows];
+        clear();
+    }
+
+    /**
+     * Remove all particles from the grid, e.g. after the particle store was compacted.
+     * They will be reinserted on the next update.
+     */
+    public void clear() {
+        Arrays.fill(head, NONE);
+        Arrays.fill(cellOf, NONE);
+    }
+
+    /**
+     * Move every particle into the cell matching its current position.
+     * Particles which stay in their cell are not touched, removed particles are unlinked.
+     * Sleeping particles don't move and keep their cell.
+     *
+     * @param store the particle store
+     */
+    public void update(final ParticleStore store) {
+        final int count = store.size();
+        ensureCapacity(store.getPosX().length);
+
+        final float[] posX = store.getPosX();
+        final float[] posY = store.getPosY();
+
+        for (int i = 0; i < count; i++) {
+            if (store.isAsleep(i) && cellOf[i] != NONE) {
+                continue;
+            }
+
+            final int cell = store.isAlive(i) ? getCell(getColumn(posX[i]), getRow(posY[i])) : NONE;
+
+            if (cell != cellOf[i]) {
+                unlink(i);
+                link(i, cell);
+            }
+        }
+    }
+
+    /**
+     * Gets column of the given x position, clamped to the grid.
+     *
+     * @param x the relative x position
+     * @return the column
+     */
+    public int getColumn(final float x) {
+        final int column = (int) ((x - minX) * inverseCellSize);
+        return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+    }
+
+    /**
+     * Gets row of the given y position, clamped to the grid.
+     *
+     * @param y the relative y position
+     * @return the row
+     */
+    public int getRow(final float y) {
+        final int row = (int) ((y - minY) * inverseCellSize);
+        return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+    }
+
+    /**
+     * Gets cell index of the given column and row.
+     *
+     * @param column the column
+     * @param row    the row
+     * @return the cell index
+     */
+    public int getCell(final int column, final int row) {
+        return row * columns + column;
+    }
+
+    private void link(final int i, final int cell) {
+        cellOf[i] = cell;
+
+        if (cell == NONE) {
+            return;
+        }
+
+        final int first = head[cell];
+        prev[i] = NONE;
+        next[i] = first;
+
+        if (first != NONE) {
+            prev[first] = i;
+        }
+        head[cell] = i;
+    }
+
+    private void unlink(final int i) {
+        final int cell = cellOf[i];
+
+        if (cell == NONE) {
+            return;
+        }
+
+        if (prev[i] != NONE) {
+            next[prev[i]] = next[i];
+        } else {
+            head[cell] = next[i];
+        }
+
+        if (next[i] != NONE) {
+            prev[next[i]] = prev[i];
+        }
+
+        cellOf[i] = NONE;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (cellOf.length < capacity) {
+            final int oldCapacity = cellOf.length;
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            cellOf = Arrays.copyOf(cellOf, capacity);
+            Arrays.fill(cellOf, oldCapacity, capacity, NONE);
+        }
+    }
+
+    /**
+     * Gets cell size.
+     *
+     * @return the cell size in meters
+     */
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Gets number of columns.
+     *
+     * @return the columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Gets number of rows.
+     *
+     * @return the rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the first particle of each cell. The array is shared and must not be modified.
+     *
+     * @return the cell heads
+     */
+    public int[] getHead() {
+        return head;
+    }
+
+    /**
+     * Gets the next particle in the same cell. The array is shared and must not be modified.
+     *
+     * @return the next particle of each particle
+     */
+    public int[] getNext() {
+        return next;
+    }
+
+    /**
+     * Gets the cell of each particle. The array is shared and must not be modified.
+     *
+     * @return the cell of each particle
+     */
+    public int[] getCellOf() {
+        return cellOf;
+    }
+}
@@ -0,0 +1,166 @@
+package de.othaw.nicolasproske.mauc.engine.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Fixed-size histogram of non-negative values, e.g. durations in nanoseconds. Values are
+ * counted in log-linear buckets: every power of two is split into 16 buckets, so the
+ * reported percentiles are off by at most about 6 % and the memory stays constant no
+ * matter how many values are recorded.
+ * <p>
+ * Recording and reading are lock-free and never allocate, any thread may record while
+ * another one reads. A reader may see a value which is only partly recorded, which is
+ * fine for statistics.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class Histogram {
+
+    // Each power of two is split into 2^SUB_BITS buckets
+    private final static int SUB_BITS = 4;
+    private final static int SUB_COUNT = 1 << SUB_BITS;
+
+    // Values up to 2^MAX_BITS - 1 are counted exactly, larger ones in the last bucket
+    private final static int MAX_BITS = 40;
+    private final static long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private final static int BUCKET_COUNT = SUB_COUNT + (MAX_BITS - SUB_BITS) * SUB_COUNT;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Instantiates a new Histogram.
+     *
+     * @param name the name used in the dump
+     */
+    public Histogram(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record a value. Negative values are recorded as zero.
+     *
+     * @param value the value
+     */
+    public void record(final long value) {
+        final long clamped = Math.max(0L, Math.min(MAX_VALUE, value));
+
+        counts.incrementAndGet(getBucket(clamped));
+        count.incrementAndGet();
+        sum.addAndGet(clamped);
+
+        long current = max.get();
+        while (clamped > current && !max.compareAndSet(current, clamped)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Remove all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0L);
+        }
+        count.set(0L);
+        sum.set(0L);
+        max.set(0L);
+    }
+
+    /**
+     * Gets the value below which the given fraction of the recorded values lies.
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the upper end of the bucket containing the percentile, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long total = count.get();
+        if (total == 0L) {
+            return 0L;
+        }
+
+        // Rank of the value, at least the first one
+        final long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0L;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                // Never report more than the largest recorded value
+                return Math.min(getBucketEnd(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Gets bucket of a value.
+     */
+    private static int getBucket(final long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+
+        // Position of the highest bit decides the power of two, the following bits the bucket in it
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_COUNT + shift * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    /**
+     * Gets largest value of a bucket.
+     */
+    private static long getBucketEnd(final int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+
+        final int shift = (bucket - SUB_COUNT) / SUB_COUNT;
+        final long sub = (bucket - SUB_COUNT) % SUB_COUNT;
+        return ((SUB_COUNT + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Gets name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets number of recorded values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets largest recorded value.
+     *
+     * @return the max
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets mean of the recorded values.
+     *
+     * @return the mean, 0 if nothing was recorded
+     */
+    public double getMean() {
+        final long total = count.get();
+        return total == 0L ? 0.0 : (double) sum.get() / total;
+    }
+}
@@ -0,0 +1,360 @@
+package de.othaw.nicolasproske.mauc.protocol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Sends outbound messages on its own thread, so a slow or unreachable broker never stalls
+ * the simulation or the UI. Messages are put into a bounded queue which the publisher
+ * thread drains in batches: everything queued since the last send is handed to the
+ * transport in one pass, then the acknowledgements of the whole batch are awaited, so
+ * a backlog costs one round trip instead of one per message.
+ * <p>
+ * A message may carry a key. A queued message with the same key and topic is replaced by
+ * the newer one, e.g. only the latest score is sent. If the queue is full the oldest
+ * message without key is dropped. Messages which could not be sent are dropped as well, except keyed
+ * ones, which are sent again once the broker is back. A keyed message after the first failed
+ * one of a batch may therefore arrive twice.
+ * <p>
+ * The publisher knows nothing about the client, it only uses the {@link Transport}, so it
+ * also runs on a plain JVM, e.g. in the load test.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class OutboundPublisher {
+
+    /**
+     * Actually sends a message, called on the publisher thread only.
+     */
+    public interface Transport {
+
+        /**
+         * Start sending a message to the broker without waiting for its acknowledgement.
+         *
+         * @param topic    the topic
+         * @param payload  the payload
+         * @param retained whether the broker keeps the message for new subscribers
+         * @return the delivery to wait for
+         * @throws Exception if the message could not be handed over
+         */
+        Delivery send(String topic, byte[] payload, boolean retained) throws Exception;
+    }
+
+    /**
+     * A message handed over to the transport.
+     */
+    public interface Delivery {
+
+        /**
+         * Wait until the broker acknowledged the message.
+         *
+         * @throws Exception if the message was not delivered
+         */
+        void await() throws Exception;
+    }
+
+    /**
+     * Informed about failed messages, called on the publisher thread only.
+     */
+    public interface FailureListener {
+
+        /**
+         * Called for the first failed message after messages were sent successfully.
+         *
+         * @param topic the topic of the failed message
+         * @param cause the reason of the failure
+         */
+        void onPublishFailed(String topic, Exception cause);
+    }
+
+    // Delay before sending again after the broker failed
+    private final static long RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Transport transport;
+    private final int capacity;
+    private final FailureListener failureListener;
+
+    // Queued messages, guarded by itself and only held for queue operations, never while sending
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+
+    // The current publisher thread, an old one which is still stuck in a send stops afterwards
+    private volatile Thread publisherThread;
+
+    // Messages taken from the queue which were not acknowledged yet, over all publisher threads
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Instantiates a new Outbound publisher.
+     *
+     * @param transport       the transport which sends the messages
+     * @param capacity        the maximum number of queued messages
+     * @param failureListener the listener which reports failures, e.g. to the log
+     */
+    public OutboundPublisher(final Transport transport, final int capacity, final FailureListener failureListener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.transport = transport;
+        this.capacity = capacity;
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Start the publisher thread, queued messages are sent right away.
+     */
+    public void start() {
+        final Thread thread = new Thread(this::run, "OutboundPublisher");
+        thread.setDaemon(true);
+        publisherThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stop the publisher thread without waiting for it. Queued messages are kept
+     * and sent after the next start.
+     */
+    public void stop() {
+        final Thread thread = publisherThread;
+        publisherThread = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Queue a message. Never blocks on the network, may be called from any thread.
+     *
+     * @param topic    the topic
+     * @param key      the key of the message, a queued message with the same key and topic is replaced, null for none
+     * @param payload  the payload
+     * @param retained whether the broker keeps the message for new subscribers
+     */
+    public void offer(final String topic, final String key, final byte[] payload, final boolean retained) {
+        synchronized (queue) {
+            enqueue(new Message(topic, key, payload, retained));
+        }
+
+        final Thread thread = publisherThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Add a message to the queue, replacing a queued one with the same key or dropping
+     * the oldest one if the queue is full. The caller must hold the queue.
+     */
+    private void enqueue(final Message message) {
+        if (message.key != null) {
+            for (final Message queued : queue) {
+                if (message.key.equals(queued.key) && message.topic.equals(queued.topic)) {
+                    queued.payload = message.payload;
+                    queued.retained = message.retained;
+                    return;
+                }
+            }
+        }
+
+        if (queue.size() >= capacity) {
+            dropOldest();
+        }
+        queue.addLast(message);
+    }
+
+    /**
+     * Drop the oldest message without key, keyed messages like the score are only
+     * dropped if there is nothing else. The caller must hold the queue.
+     */
+    private void dropOldest() {
+        final Iterator<Message> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().key == null) {
+                iterator.remove();
+                droppedCount.incrementAndGet();
+                return;
+            }
+        }
+
+        queue.pollFirst();
+        droppedCount.incrementAndGet();
+    }
+
+    /**
+     * Main loop of the publisher thread. Takes all queued messages, sends them and
+     * sleeps until new ones arrive.
+     */
+    private void run() {
+        // Messages taken from the queue for one pass and their deliveries, owned by this thread
+        final List<Message> batch = new ArrayList<>();
+        final List<Delivery> deliveries = new ArrayList<>();
+
+        // Only the first failure is reported until the broker works again
+        boolean failing = false;
+
+        while (publisherThread == Thread.currentThread()) {
+            synchronized (queue) {
+                batch.addAll(queue);
+                queue.clear();
+            }
+
+            if (batch.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            inFlightCount.addAndGet(batch.size());
+            final int failedAt = sendBatch(batch, deliveries, failing);
+            failing = failedAt >= 0;
+            if (failing) {
+                requeue(batch, failedAt);
+            }
+            inFlightCount.addAndGet(-batch.size());
+            if (failing) {
+                // Give the broker some time before the next attempt
+                LockSupport.parkNanos(this, RETRY_DELAY_NANOS);
+            }
+            batch.clear();
+            deliveries.clear();
+        }
+    }
+
+    /**
+     * Hand all messages of the batch to the transport in order, then wait for their deliveries.
+     *
+     * @return the index of the first message which could not be sent, -1 if all were sent
+     */
+    private int sendBatch(final List<Message> batch, final List<Delivery> deliveries, final boolean failing) {
+        int failedAt = -1;
+        Exception failure = null;
+
+        for (int i = 0; i < batch.size(); i++) {
+            final Message message = batch.get(i);
+            try {
+                deliveries.add(transport.send(message.topic, message.payload, message.retained));
+            } catch (final Exception e) {
+                failedAt = i;
+                failure = e;
+                break;
+            }
+        }
+
+        // The later ones would most likely time out as well
+        for (int i = 0; i < deliveries.size(); i++) {
+            try {
+                deliveries.get(i).await();
+                sentCount.incrementAndGet();
+            } catch (final Exception e) {
+                failedAt = i;
+                failure = e;
+                break;
+            }
+        }
+
+        if (failure != null && !failing) {
+            failureListener.onPublishFailed(batch.get(failedAt).topic, failure);
+        }
+        return failedAt;
+    }
+
+    /**
+     * Put the keyed messages which were not sent back in front of the queue, unless a
+     * newer message with the same key arrived meanwhile. The others are dropped.
+     */
+    private void requeue(final List<Message> batch, final int from) {
+        synchronized (queue) {
+            for (int i = batch.size() - 1; i >= from; i--) {
+                final Message message = batch.get(i);
+                if (message.key != null && contains(message.key, message.topic)) {
+                    // Replaced by the newer one
+                    continue;
+                }
+                if (message.key != null && queue.size() < capacity) {
+                    queue.addFirst(message);
+                } else {
+                    droppedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private boolean contains(final String key, final String topic) {
+        for (final Message queued : queue) {
+            if (key.equals(queued.key) && topic.equals(queued.topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets number of sent messages.
+     *
+     * @return the sent count
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Gets number of messages dropped because the queue was full or the broker failed.
+     * Replaced keyed messages are not counted.
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets number of messages of the current batch which were taken from the queue,
+     * but not acknowledged by the broker yet.
+     *
+     * @return the in-flight count
+     */
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    /**
+     * Gets number of queued messages, without the ones in flight.
+     *
+     * @return the pending count
+     */
+    public int getPendingCount() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Message waiting in the queue, payload and retained flag are replaced by newer
+     * messages with the same key.
+     */
+    private final static class Message {
+
+        private final String topic;
+        private final String key;
+        private byte[] payload;
+        private boolean retained;
+
+        private Message(final String topic, final String key, final byte[] payload, final boolean retained) {
+            this.topic = topic;
+            this.key = key;
+            this.payload = payload;
+            this.retained = retained;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package de.othaw.nicolasproske.mauc.protocol;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.othaw.nicolasproske.mauc.engine.ParticleSnapshot;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Encodes and decodes the telemetry frames which mirror the positions of all balls to
+ * remote dashboards. Positions are quantized to 16 bit relative to the bounds of the board.
+ * A keyframe contains every ball, a delta frame only the balls which moved, appeared or
+ * were removed since the previous frame. Every {@link #DEFAULT_KEYFRAME_INTERVAL}th frame
+ * and every frame after the bounds changed is a keyframe, so a receiver which joins late
+ * or missed a frame catches up quickly. Frames skipped because nothing moved count towards
+ * the interval, so a board at rest still sends a keyframe now and then.
+ * <p>
+ * A frame has a header of {@link #HEADER_SIZE} bytes in big-endian byte order:
+ * <pre>
+ * offset  size  field
+ *      0     1  magic 'S'
+ *      1     1  version, currently 1
+ *      2     1  type, {@link #KEYFRAME} or {@link #DELTA}
+ *      3     4  frame sequence number, incremented for every frame
+ *      7     8  timestamp in microseconds since the epoch
+ *     15     4  horizontal bound in meters, IEEE 754 float
+ *     19     4  vertical bound in meters, IEEE 754 float
+ *     23     2  number of entries
+ * </pre>
+ * Each entry starts with 2 bytes, the upper 2 bits are the kind, the lower 14 bits the
+ * ball id:
+ * <pre>
+ * kind  size  content
+ *    0     4  small move, x and y difference of the quantized position as signed bytes
+ *    1     6  position, quantized x and y as signed shorts
+ *    2     2  removed
+ * </pre>
+ * An instance either encodes or decodes one stream, it keeps the previous frame for the
+ * deltas. It must only be used by one thread and only allocates if the number of balls grows.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class TelemetryCodec {
+
+    /**
+     * First byte of a frame.
+     */
+    public final static byte MAGIC = 'S';
+
+    /**
+     * Current version of the format.
+     */
+    public final static byte VERSION = 1;
+
+    /**
+     * Frame types.
+     */
+    public final static byte KEYFRAME = 0;
+    public final static byte DELTA = 1;
+
+    /**
+     * Size of the header in bytes.
+     */
+    public final static int HEADER_SIZE = 25;
+
+    /**
+     * Largest ball id which fits into an entry.
+     */
+    public final static int MAX_ID = (1 << 14) - 1;
+
+    /**
+     * Number of frames from one keyframe to the next.
+     */
+    public final static int DEFAULT_KEYFRAME_INTERVAL = 30;
+
+    // Entry kinds and sizes
+    private final static int SMALL_MOVE = 0;
+    private final static int POSITION = 1;
+    private final static int REMOVED = 2;
+    private final static int SMALL_MOVE_SIZE = 4;
+    private final static int POSITION_SIZE = 6;
+    private final static int REMOVED_SIZE = 2;
+
+    // Quantized value of a position on the bound
+    private final static int QUANTUM = Short.MAX_VALUE;
+
+    private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+
+    // Previous frame, quantized positions indexed by the ball id
+    private int[] lastX = new int[0];
+    private int[] lastY = new int[0];
+    private boolean[] lastAlive = new boolean[0];
+    private int lastSize;
+    private float lastHorizontalBound;
+    private float lastVerticalBound;
+
+    // Encoder: sequence of the next frame and frames since the last keyframe
+    private int nextSequence;
+    private int framesSinceKeyframe;
+    private final AtomicBoolean keyframeRequested = new AtomicBoolean(true);
+
+    // Decoder: header of the last decoded frame and whether a keyframe was seen
+    private int sequence;
+    private long timestamp;
+    private byte type;
+    private boolean synced;
+
+    /**
+     * Gets the buffer size needed to encode a frame with the given number of balls.
+     *
+     * @param size the number of ball ids
+     * @return the size in bytes
+     */
+    public static int getMaxFrameSize(final int size) {
+        return HEADER_SIZE + size * POSITION_SIZE;
+    }
+
+    /**
+     * Let the next encoded frame be a keyframe, e.g. after a reconnect.
+     * May be called from any thread.
+     */
+    public void requestKeyframe() {
+        keyframeRequested.set(true);
+    }
+
+    /**
+     * Encode the positions of a snapshot as keyframe or delta frame.
+     *
+     * @param snapshot        the snapshot
+     * @param horizontalBound the horizontal bound in meters the positions are quantized to
+     * @param verticalBound   the vertical bound in meters the positions are quantized to
+     * @param timestamp       the timestamp in microseconds since the epoch
+     * @param buffer          the buffer, at least {@link #getMaxFrameSize(int)} bytes from the offset on
+     * @param offset          the offset of the frame in the buffer
+     * @return the number of written bytes, 0 if nothing changed since the previous frame
+     */
+    public int encode(final ParticleSnapshot snapshot, final float horizontalBound, final float verticalBound,
+                      final long timestamp, final byte[] buffer, final int offset) {
+        final int size = Math.min(snapshot.size(), MAX_ID + 1);
+        ensureCapacity(size);
+
+        // Taken right away, so a request arriving during this frame applies to the next one
+        final boolean keyframe = keyframeRequested.getAndSet(false)
+                || framesSinceKeyframe + 1 >= keyframeInterval
+                || horizontalBound != lastHorizontalBound || verticalBound != lastVerticalBound;
+
+        int position = offset + HEADER_SIZE;
+        int entries = 0;
+
+        for (int id = 0; id < Math.max(size, lastSize); id++) {
+            final boolean alive = id < size && snapshot.isAlive(id);
+            final boolean wasAlive = lastAlive[id];
+
+            if (!alive) {
+                if (wasAlive && !keyframe) {
+                    position = putShort(buffer, position, (REMOVED << 14) | id);
+                    entries++;
+                }
+                lastAlive[id] = false;
+                continue;
+            }
+
+            final int x = quantize(snapshot.getPosX(id), horizontalBound);
+            final int y = quantize(snapshot.getPosY(id), verticalBound);
+            final int dx = x - lastX[id];
+            final int dy = y - lastY[id];
+
+            if (keyframe || !wasAlive) {
+                position = putShort(buffer, position, (POSITION << 14) | id);
+                position = putShort(buffer, position, x);
+                position = putShort(buffer, position, y);
+                entries++;
+            } else if (dx != 0 || dy != 0) {
+                if (dx >= Byte.MIN_VALUE && dx <= Byte.MAX_VALUE && dy >= Byte.MIN_VALUE && dy <= Byte.MAX_VALUE) {
+                    position = putShort(buffer, position, (SMALL_MOVE << 14) | id);
+                    buffer[position++] = (byte) dx;
+                    buffer[position++] = (byte) dy;
+                } else {
+                    position = putShort(buffer, position, (POSITION << 14) | id);
+                    position = putShort(buffer, position, x);
+                    position = putShort(buffer, position, y);
+                }
+                entries++;
+            }
+
+            lastX[id] = x;
+            lastY[id] = y;
+            lastAlive[id] = true;
+        }
+
+        if (!keyframe && entries == 0) {
+            framesSinceKeyframe++;
+            return 0;
+        }
+
+        buffer[offset] = MAGIC;
+        buffer[offset + 1] = VERSION;
+        buffer[offset + 2] = keyframe ? KEYFRAME : DELTA;
+        putInt(buffer, offset + 3, nextSequence++);
+        putInt(buffer, offset + 7, (int) (timestamp >>> 32));
+        putInt(buffer, offset + 11, (int) timestamp);
+        putInt(buffer, offset + 15, Float.floatToIntBits(horizontalBound));
+        putInt(buffer, offset + 19, Float.floatToIntBits(verticalBound));
+        putShort(buffer, offset + 23, entries);
+
+        lastSize = size;
+        lastHorizontalBound = horizontalBound;
+        lastVerticalBound = verticalBound;
+        type = keyframe ? KEYFRAME : DELTA;
+        framesSinceKeyframe = keyframe ? 0 : framesSinceKeyframe + 1;
+
+        return position - offset;
+    }
+
+    /**
+     * Decode a frame and apply it to the positions of the previous frame.
+     *
+     * @param payload the buffer containing the frame
+     * @param offset  the offset of the frame
+     * @param length  the length of the frame
+     * @return true if the frame was applied, false if it was invalid or a delta frame
+     * which does not follow the previous frame, then the next keyframe is awaited
+     */
+    public boolean decode(final byte[] payload, final int offset, final int length) {
+        if (length < HEADER_SIZE || payload[offset] != MAGIC || payload[offset + 1] < VERSION) {
+            return false;
+        }
+
+        final byte type = payload[offset + 2];
+        final int sequence = getInt(payload, offset + 3);
+        final boolean keyframe = type == KEYFRAME;
+
+        if (!keyframe && (type != DELTA || !synced || sequence != this.sequence + 1)) {
+            synced = false;
+            return false;
+        }
+
+        final int entries = getShort(payload, offset + 23) & 0xFFFF;
+        final int end = offset + length;
+
+        // Check the frame before changing anything
+        int position = offset + HEADER_SIZE;
+        int size = 0;
+        for (int i = 0; i < entries; i++) {
+            if (position + REMOVED_SIZE > end) {
+                return false;
+            }
+            final int header = getShort(payload, position) & 0xFFFF;
+            final int kind = header >>> 14;
+            size = Math.max(size, (header & MAX_ID) + 1);
+            position += kind == SMALL_MOVE ? SMALL_MOVE_SIZE : kind == POSITION ? POSITION_SIZE : REMOVED_SIZE;
+            if (kind > REMOVED || position > end || (keyframe && kind != POSITION)) {
+                return false;
+            }
+        }
+
+        ensureCapacity(size);
+        if (keyframe) {
+            Arrays.fill(lastAlive, false);
+        }
+
+        position = offset + HEADER_SIZE;
+        for (int i = 0; i < entries; i++) {
+            final int header = getShort(payload, position) & 0xFFFF;
+            final int id = header & MAX_ID;
+            position += 2;
+
+            switch (header >>> 14) {
+                case SMALL_MOVE:
+                    lastX[id] += payload[position];
+                    lastY[id] += payload[position + 1];
+                    position += 2;
+                    break;
+                case POSITION:
+                    lastX[id] = getShort(payload, position);
+                    lastY[id] = getShort(payload, position + 2);
+                    lastAlive[id] = true;
+                    position += 4;
+                    break;
+                default:
+                    lastAlive[id] = false;
+                    break;
+            }
+        }
+
+        this.type = type;
+        this.sequence = sequence;
+        this.timestamp = ((long) getInt(payload, offset + 7) << 32) | (getInt(payload, offset + 11) & 0xFFFFFFFFL);
+        this.lastHorizontalBound = Float.intBitsToFloat(getInt(payload, offset + 15));
+        this.lastVerticalBound = Float.intBitsToFloat(getInt(payload, offset + 19));
+        this.lastSize = Math.max(keyframe ? 0 : lastSize, size);
+        this.synced = true;
+        return true;
+    }
+
+    private void ensureCapacity(final int size) {
+        if (lastAlive.length < size) {
+            final int capacity = Math.max(size, lastAlive.length * 2);
+            lastX = Arrays.copyOf(lastX, capacity);
+            lastY = Arrays.copyOf(lastY, capacity);
+            lastAlive = Arrays.copyOf(lastAlive, capacity);
+        }
+    }
+
+    private static int quantize(final float value, final float bound) {
+        if (bound <= 0f) {
+            return 0;
+        }
+        final float relative = Math.max(-1f, Math.min(1f, value / bound));
+        return Math.round(relative * QUANTUM);
+    }
+
+    private static int putShort(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) (value >>> 8);
+        buffer[offset + 1] = (byte) value;
+        return offset + 2;
+    }
+
+    private static short getShort(final byte[] buffer, final int offset) {
+        return (short) ((buffer[offset] << 8) | (buffer[offset + 1] & 0xFF));
+    }
+
+    private static void putInt(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(final byte[] buffer, final int offset) {
+        return (buffer[offset] << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Gets number of frames from one keyframe to the next.
+     *
+     * @return the keyframe interval
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Sets number of frames from one keyframe to the next, 1 sends only keyframes.
+     *
+     * @param keyframeInterval the keyframe interval
+     */
+    public void setKeyframeInterval(final int keyframeInterval) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be positive: " + keyframeInterval);
+        }
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Gets number of ball ids of the last frame, including removed balls.
+     *
+     * @return the size
+     */
+    public int size() {
+        return lastSize;
+    }
+
+    /**
+     * Checks if a ball of the last frame is alive.
+     *
+     * @param id the ball id
+     * @return true if the ball is alive
+     */
+    public boolean isAlive(final int id) {
+        return id < lastAlive.length && lastAlive[id];
+    }
+
+    /**
+     * Gets x position of a ball of the last frame.
+     *
+     * @param id the ball id
+     * @return the x position in meters
+     */
+    public float getPosX(final int id) {
+        return lastX[id] * lastHorizontalBound / QUANTUM;
+    }
+
+    /**
+     * Gets y position of a ball of the last frame.
+     *
+     * @param id the ball id
+     * @return the y position in meters
+     */
+    public float getPosY(final int id) {
+        return lastY[id] * lastVerticalBound / QUANTUM;
+    }
+
+    /**
+     * Gets sequence number of the last decoded frame.
+     *
+     * @return the sequence number
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets timestamp of the last decoded frame.
+     *
+     * @return the timestamp in microseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Checks if the last encoded or decoded frame was a keyframe.
+     *
+     * @return true for a keyframe
+     */
+    public boolean isKeyframe() {
+        return type == KEYFRAME;
+    }
+}
@@ -0,0 +1,321 @@
+package de.othaw.nicolasproske.mauc.protocol;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Encodes and decodes the tilt messages the remote controller sends over MQTT.
+ * <p>
+ * The binary format has a fixed size of {@link #SIZE} bytes in big-endian byte order:
+ * <pre>
+ * offset  size  field
+ *      0     1  magic 'T'
+ *      1     1  version, currently 1
+ *      2     4  sequence number, incremented by the sender for every message
+ *      6     8  timestamp of the sender in microseconds since the epoch
+ *     14     4  x acceleration, IEEE 754 float
+ *     18     4  y acceleration, IEEE 754 float
+ * </pre>
+ * Older controllers send the text {@code "x,y"}, which is still accepted. Such messages
+ * have neither sequence number nor timestamp.
+ * <p>
+ * Decoding parses the payload in place and never allocates, the decoded values are kept in
+ * the codec until the next message. A codec must therefore only be used by one thread.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class TiltCodec {
+
+    /**
+     * First byte of a binary message.
+     */
+    public final static byte MAGIC = 'T';
+
+    /**
+     * Current version of the binary format.
+     */
+    public final static byte VERSION = 1;
+
+    /**
+     * Size of a binary message in bytes.
+     */
+    public final static int SIZE = 22;
+
+    /**
+     * Sequence number and timestamp of text messages.
+     */
+    public final static int NO_SEQUENCE = -1;
+    public final static long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    // Largest mantissa which can still take another digit without overflow
+    private final static long MAX_MANTISSA = Long.MAX_VALUE / 10 - 10;
+
+    // Powers of ten which are exactly representable as double
+    private final static double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Values of the last decoded message
+    private float x;
+    private float y;
+    private int sequence;
+    private long timestamp;
+    private boolean binary;
+
+    // Position after the last parsed number of the text format
+    private int parsePosition;
+
+    /**
+     * Write a binary message.
+     *
+     * @param buffer    the buffer, at least {@link #SIZE} bytes from the offset on
+     * @param offset    the offset of the message in the buffer
+     * @param sequence  the sequence number
+     * @param timestamp the timestamp in microseconds since the epoch
+     * @param x         the x acceleration
+     * @param y         the y acceleration
+     * @return the number of written bytes
+     */
+    public static int encode(final byte[] buffer, final int offset, final int sequence, final long timestamp,
+                             final float x, final float y) {
+        buffer[offset] = MAGIC;
+        buffer[offset + 1] = VERSION;
+        putInt(buffer, offset + 2, sequence);
+        putInt(buffer, offset + 6, (int) (timestamp >>> 32));
+        putInt(buffer, offset + 10, (int) timestamp);
+        putInt(buffer, offset + 14, Float.floatToIntBits(x));
+        putInt(buffer, offset + 18, Float.floatToIntBits(y));
+        return SIZE;
+    }
+
+    /**
+     * Decode a message, either binary or text.
+     *
+     * @param payload the payload
+     * @return true if the payload was a valid message, otherwise the previous values are kept
+     */
+    public boolean decode(final byte[] payload) {
+        return decode(payload, 0, payload.length);
+    }
+
+    /**
+     * Decode a message, either binary or text.
+     *
+     * @param payload the buffer containing the payload
+     * @param offset  the offset of the payload
+     * @param length  the length of the payload
+     * @return true if the payload was a valid message, otherwise the previous values are kept
+     */
+    public boolean decode(final byte[] payload, final int offset, final int length) {
+        if (length <= 0) {
+            return false;
+        }
+
+        if (payload[offset] == MAGIC) {
+            return decodeBinary(payload, offset, length);
+        }
+        return decodeText(payload, offset, offset + length);
+    }
+
+    private boolean decodeBinary(final byte[] payload, final int offset, final int length) {
+        // Newer versions may append fields, but must keep the ones known here
+        if (length < SIZE || payload[offset + 1] < VERSION) {
+            return false;
+        }
+
+        final float x = Float.intBitsToFloat(getInt(payload, offset + 14));
+        final float y = Float.intBitsToFloat(getInt(payload, offset + 18));
+        if (!isFinite(x) || !isFinite(y)) {
+            return false;
+        }
+
+        this.x = x;
+        this.y = y;
+        this.sequence = getInt(payload, offset + 2);
+        this.timestamp = ((long) getInt(payload, offset + 6) << 32) | (getInt(payload, offset + 10) & 0xFFFFFFFFL);
+        this.binary = true;
+        return true;
+    }
+
+    /**
+     * Decode the text format "x,y", surrounding whitespace is ignored.
+     */
+    private boolean decodeText(final byte[] payload, final int from, final int to) {
+        final float x = parseFloat(payload, from, to);
+        if (Float.isNaN(x) || parsePosition >= to || payload[parsePosition] != ',') {
+            return false;
+        }
+
+        final float y = parseFloat(payload, parsePosition + 1, to);
+        if (Float.isNaN(y) || skipWhitespace(payload, parsePosition, to) != to) {
+            return false;
+        }
+
+        this.x = x;
+        this.y = y;
+        this.sequence = NO_SEQUENCE;
+        this.timestamp = NO_TIMESTAMP;
+        this.binary = false;
+        return true;
+    }
+
+    /**
+     * Parse a decimal number like "-1.25", ".5" or "9.81e-1" starting at from. Stops at the
+     * first character which does not belong to the number and remembers its position.
+     *
+     * @return the number, NaN if there is no valid number
+     */
+    private float parseFloat(final byte[] payload, final int from, final int to) {
+        int i = skipWhitespace(payload, from, to);
+
+        boolean negative = false;
+        if (i < to && (payload[i] == '-' || payload[i] == '+')) {
+            negative = payload[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0L;
+        int exponent = 0;
+        int digits = 0;
+
+        // Integer part, digits which don't fit into the mantissa only scale it
+        while (i < to && payload[i] >= '0' && payload[i] <= '9') {
+            if (mantissa < MAX_MANTISSA) {
+                mantissa = mantissa * 10 + (payload[i] - '0');
+            } else {
+                exponent++;
+            }
+            digits++;
+            i++;
+        }
+
+        // Fraction
+        if (i < to && payload[i] == '.') {
+            i++;
+            while (i < to && payload[i] >= '0' && payload[i] <= '9') {
+                if (mantissa < MAX_MANTISSA) {
+                    mantissa = mantissa * 10 + (payload[i] - '0');
+                    exponent--;
+                }
+                digits++;
+                i++;
+            }
+        }
+
+        if (digits == 0) {
+            return Float.NaN;
+        }
+
+        // Exponent
+        if (i < to && (payload[i] == 'e' || payload[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (payload[i] == '-' || payload[i] == '+')) {
+                negativeExponent = payload[i] == '-';
+                i++;
+            }
+
+            int value = 0;
+            int exponentDigits = 0;
+            while (i < to && payload[i] >= '0' && payload[i] <= '9') {
+                value = Math.min(1000, value * 10 + (payload[i] - '0'));
+                exponentDigits++;
+                i++;
+            }
+            if (exponentDigits == 0) {
+                return Float.NaN;
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        parsePosition = skipWhitespace(payload, i, to);
+
+        double result = mantissa;
+        if (exponent < 0) {
+            result /= powerOfTen(-exponent);
+        } else if (exponent > 0) {
+            result *= powerOfTen(exponent);
+        }
+
+        final float value = (float) (negative ? -result : result);
+        return isFinite(value) ? value : Float.NaN;
+    }
+
+    private static double powerOfTen(final int exponent) {
+        if (exponent < POWERS_OF_TEN.length) {
+            return POWERS_OF_TEN[exponent];
+        }
+        return Math.pow(10.0, exponent);
+    }
+
+    private static int skipWhitespace(final byte[] payload, int i, final int to) {
+        while (i < to && (payload[i] == ' ' || payload[i] == '\t' || payload[i] == '\r' || payload[i] == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isFinite(final float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+
+    private static void putInt(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(final byte[] buffer, final int offset) {
+        return (buffer[offset] << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Gets x acceleration of the last message.
+     *
+     * @return the x acceleration
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Gets y acceleration of the last message.
+     *
+     * @return the y acceleration
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Gets sequence number of the last message.
+     *
+     * @return the sequence number, {@link #NO_SEQUENCE} for text messages
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets timestamp of the sender of the last message.
+     *
+     * @return the timestamp in microseconds since the epoch, {@link #NO_TIMESTAMP} for text messages
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Checks if the last message was binary.
+     *
+     * @return true if the last message used the binary format
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+}
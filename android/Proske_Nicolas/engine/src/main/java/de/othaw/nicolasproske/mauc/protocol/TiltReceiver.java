@@ -0,0 +1,138 @@
+package de.othaw.nicolasproske.mauc.protocol;
+
+import de.othaw.nicolasproske.mauc.engine.JitterBuffer;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Receiving end of the tilt input: decodes the messages with the {@link TiltCodec} and
+ * places them in a {@link JitterBuffer}. Samples of a local sensor, which need no decoding,
+ * take the same way. The values of the latest sample stay available, e.g. for tracing.
+ * <p>
+ * Like the jitter buffer it must only be used by one thread at a time and never allocates.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public final class TiltReceiver {
+
+    private final TiltCodec codec = new TiltCodec();
+    private final JitterBuffer jitterBuffer;
+
+    // Latest placed sample
+    private int sequence = TiltCodec.NO_SEQUENCE;
+    private long timestamp = TiltCodec.NO_TIMESTAMP;
+    private float x;
+    private float y;
+    private long inputTime = JitterBuffer.NO_TIMESTAMP;
+
+    private long invalidCount;
+
+    /**
+     * Instantiates a new Tilt receiver.
+     *
+     * @param jitterBuffer the jitter buffer the samples are placed in
+     */
+    public TiltReceiver(final JitterBuffer jitterBuffer) {
+        this.jitterBuffer = jitterBuffer;
+    }
+
+    /**
+     * Decode a binary or text message and place its tilt in the jitter buffer.
+     *
+     * @param payload     the payload
+     * @param receiveTime the monotonic arrival time in nanoseconds
+     * @return true if the message was valid, it may still be dropped as stale, see {@link #getInputTime()}
+     */
+    public boolean receive(final byte[] payload, final long receiveTime) {
+        if (!codec.decode(payload)) {
+            invalidCount++;
+            return false;
+        }
+
+        add(codec.getSequence(), codec.getTimestamp(), receiveTime, codec.getX(), codec.getY());
+        return true;
+    }
+
+    /**
+     * Place a sample which was not received as message in the jitter buffer.
+     *
+     * @param sequence    the sequence number of the sender, or {@link TiltCodec#NO_SEQUENCE}
+     * @param timestamp   the timestamp of the sender in microseconds since the epoch, or {@link TiltCodec#NO_TIMESTAMP}
+     * @param receiveTime the monotonic arrival time in nanoseconds
+     * @param x           the x acceleration
+     * @param y           the y acceleration
+     * @return the monotonic time the sample was placed at, or {@link JitterBuffer#NO_TIMESTAMP} if it was dropped as stale
+     */
+    public long add(final int sequence, final long timestamp, final long receiveTime, final float x, final float y) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.x = x;
+        this.y = y;
+        this.inputTime = jitterBuffer.add(timestamp, receiveTime, x, y);
+        return inputTime;
+    }
+
+    /**
+     * Gets sequence number of the latest sample.
+     *
+     * @return the sequence number, or {@link TiltCodec#NO_SEQUENCE}
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets sender timestamp of the latest sample.
+     *
+     * @return the timestamp in microseconds since the epoch, or {@link TiltCodec#NO_TIMESTAMP}
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets x acceleration of the latest sample.
+     *
+     * @return the x acceleration
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Gets y acceleration of the latest sample.
+     *
+     * @return the y acceleration
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Gets the time the latest sample was placed at.
+     *
+     * @return the monotonic time in nanoseconds, or {@link JitterBuffer#NO_TIMESTAMP} if it was dropped as stale
+     */
+    public long getInputTime() {
+        return inputTime;
+    }
+
+    /**
+     * Gets number of invalid messages.
+     *
+     * @return the invalid count
+     */
+    public long getInvalidCount() {
+        return invalidCount;
+    }
+
+    /**
+     * Gets the jitter buffer the samples are placed in.
+     *
+     * @return the jitter buffer
+     */
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
+    }
+}
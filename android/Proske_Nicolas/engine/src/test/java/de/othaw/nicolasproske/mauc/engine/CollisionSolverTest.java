@@ -0,0 +1,82 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Tests that the serial and the parallel mode of the {@link CollisionSolver} move the
+ * balls to exactly the same positions.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public class CollisionSolverTest {
+
+    private final static float DIAMETER = 0.01f;
+    private final static float X_MAX = 0.3f;
+    private final static float Y_MAX = 0.5f;
+    private final static int BALLS = 2_000;
+    private final static int STEPS = 120;
+
+    // Own pool, the common pool may have a single thread on the build machine
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void serialAndParallelGiveEqualPositions() {
+        final Simulation serial = createSimulation(CollisionSolver.Mode.SERIAL);
+        final Simulation parallel = createSimulation(CollisionSolver.Mode.PARALLEL);
+        final float dT = Simulation.DEFAULT_STEP_NANOS / 1e9f;
+
+        for (int i = 0; i < STEPS; i++) {
+            // Changing tilt keeps the balls awake and colliding
+            final float sx = 9.81f * (float) Math.sin(i * 0.05);
+            final float sy = 9.81f * (float) Math.cos(i * 0.05);
+            serial.step(sx, sy, dT);
+            parallel.step(sx, sy, dT);
+        }
+
+        final ParticleStore expected = serial.getParticleStore();
+        final ParticleStore actual = parallel.getParticleStore();
+        assertEquals(expected.size(), actual.size());
+        assertTrue(serial.getLastIterations() > 0);
+        assertArrayEquals(expected.getPosX(), actual.getPosX(), 0f);
+        assertArrayEquals(expected.getPosY(), actual.getPosY(), 0f);
+    }
+
+    private Simulation createSimulation(final CollisionSolver.Mode mode) {
+        final CollisionSolver solver = new CollisionSolver(pool);
+        solver.setMode(mode);
+
+        final Simulation simulation = new Simulation(DIAMETER, BALLS, new Random(42L), solver);
+        simulation.setBounds(X_MAX, Y_MAX);
+        // Out of reach, so no ball is captured
+        simulation.setHole(10f, 10f, 0f);
+
+        // Densely packed, so every cell has several overlapping balls
+        final Random random = new Random(7L);
+        for (int i = 0; i < BALLS; i++) {
+            simulation.addParticle((random.nextFloat() * 2f - 1f) * X_MAX, (random.nextFloat() * 2f - 1f) * Y_MAX);
+        }
+        return simulation;
+    }
+}
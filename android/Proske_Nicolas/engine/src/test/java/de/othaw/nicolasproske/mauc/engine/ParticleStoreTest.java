@@ -0,0 +1,107 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Tests compaction and id reuse of the {@link ParticleStore}.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public class ParticleStoreTest {
+
+    @Test
+    public void compactMovesLastParticlesIntoFreeSlots() {
+        final ParticleStore store = new ParticleStore(2);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, store.add(i, -i));
+        }
+
+        store.kill(1);
+        store.kill(3);
+        assertEquals(3, store.getAliveCount());
+        assertEquals(5, store.size());
+
+        assertEquals(2, store.compact());
+        assertEquals(3, store.size());
+        assertEquals(3, store.getAliveCount());
+
+        // The last particle took the slot of the first removed one
+        assertEquals(0, store.getId(0));
+        assertEquals(4, store.getId(1));
+        assertEquals(2, store.getId(2));
+
+        // Positions moved with their ids
+        for (int i = 0; i < store.size(); i++) {
+            assertTrue(store.isAlive(i));
+            assertEquals(store.getId(i), store.getPosX()[i], 0f);
+            assertEquals(-store.getId(i), store.getPosY()[i], 0f);
+        }
+    }
+
+    @Test
+    public void compactWithoutKilledParticlesChangesNothing() {
+        final ParticleStore store = new ParticleStore(4);
+        store.add(1f, 2f);
+        store.add(3f, 4f);
+
+        assertEquals(0, store.compact());
+        assertEquals(2, store.size());
+        assertEquals(0, store.getId(0));
+        assertEquals(1, store.getId(1));
+    }
+
+    @Test
+    public void compactRemovesTrailingKilledParticles() {
+        final ParticleStore store = new ParticleStore(4);
+        store.add(0f, 0f);
+        store.add(1f, 1f);
+        store.add(2f, 2f);
+
+        store.kill(1);
+        store.kill(2);
+        assertEquals(2, store.compact());
+
+        assertEquals(1, store.size());
+        assertEquals(0, store.getId(0));
+        assertFalse(store.isAlive(1));
+    }
+
+    @Test
+    public void addReusesIdsOfRemovedParticles() {
+        final ParticleStore store = new ParticleStore(4);
+        for (int i = 0; i < 4; i++) {
+            store.add(0f, 0f);
+        }
+        store.kill(1);
+        store.kill(3);
+        store.compact();
+
+        final int first = store.getId(store.add(0f, 0f));
+        final int second = store.getId(store.add(0f, 0f));
+        final int third = store.getId(store.add(0f, 0f));
+
+        // Pooled ids first, then a fresh one
+        assertTrue((first == 1 && second == 3) || (first == 3 && second == 1));
+        assertEquals(4, third);
+        assertEquals(5, store.getIdCount());
+    }
+
+    @Test
+    public void killTwiceCountsOnce() {
+        final ParticleStore store = new ParticleStore(4);
+        store.add(0f, 0f);
+        store.add(1f, 1f);
+
+        store.kill(0);
+        store.kill(0);
+        assertEquals(1, store.getAliveCount());
+        assertEquals(1, store.compact());
+    }
+}
@@ -0,0 +1,84 @@
+package de.othaw.nicolasproske.mauc.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Tests the fixed timestep and the clamp of the {@link SimulationClock}.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public class SimulationClockTest {
+
+    private final static long STEP = 1_000L;
+
+    @Test
+    public void firstTimestampOnlyStartsTheClock() {
+        final SimulationClock clock = new SimulationClock(STEP, 8);
+
+        assertEquals(0, clock.advance(1_000_000L));
+        assertEquals(STEP, clock.getRemainingNanos());
+    }
+
+    @Test
+    public void handsOutWholeStepsAndKeepsTheRest() {
+        final SimulationClock clock = new SimulationClock(STEP, 8);
+        clock.advance(0L);
+
+        assertEquals(2, clock.advance(2_500L));
+        assertEquals(0.5f, clock.getAlpha(), 1e-6f);
+        assertEquals(500L, clock.getRemainingNanos());
+
+        // The rest of the previous advance completes the next step
+        assertEquals(1, clock.advance(3_000L));
+        assertEquals(0f, clock.getAlpha(), 0f);
+    }
+
+    @Test
+    public void clampsStepsAfterStallAndDropsLostTime() {
+        final SimulationClock clock = new SimulationClock(STEP, 4);
+        clock.advance(0L);
+
+        assertEquals(4, clock.advance(100 * STEP + 300L));
+        // Only the fraction of a step is kept, not the 96 steps which were lost
+        assertEquals(0.3f, clock.getAlpha(), 1e-6f);
+
+        assertEquals(0, clock.advance(100 * STEP + 600L));
+        assertEquals(1, clock.advance(101 * STEP + 300L));
+    }
+
+    @Test
+    public void ignoresTimestampsGoingBack() {
+        final SimulationClock clock = new SimulationClock(STEP, 8);
+        clock.advance(10 * STEP);
+
+        assertEquals(0, clock.advance(5 * STEP));
+        // Measured from the timestamp which went back
+        assertEquals(1, clock.advance(6 * STEP));
+    }
+
+    @Test
+    public void resetRestartsTheClock() {
+        final SimulationClock clock = new SimulationClock(STEP, 8);
+        clock.advance(0L);
+        clock.advance(STEP / 2);
+
+        clock.reset();
+        assertEquals(0, clock.advance(50 * STEP));
+        assertEquals(0f, clock.getAlpha(), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveStep() {
+        new SimulationClock(0L, 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroSubSteps() {
+        new SimulationClock(STEP, 0);
+    }
+}
@@ -0,0 +1,157 @@
+package de.othaw.nicolasproske.mauc.protocol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import de.othaw.nicolasproske.mauc.engine.ParticleSnapshot;
+import de.othaw.nicolasproske.mauc.engine.ParticleStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Tests keyframes, delta frames and the resynchronization of the {@link TelemetryCodec}.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public class TelemetryCodecTest {
+
+    private final static float X_MAX = 0.3f;
+    private final static float Y_MAX = 0.5f;
+
+    // One quantization step of the larger bound
+    private final static float DELTA = Y_MAX / Short.MAX_VALUE;
+
+    private final ParticleStore store = new ParticleStore(8);
+    private final ParticleSnapshot snapshot = new ParticleSnapshot();
+    private final TelemetryCodec encoder = new TelemetryCodec();
+    private final TelemetryCodec decoder = new TelemetryCodec();
+    private final byte[] buffer = new byte[TelemetryCodec.getMaxFrameSize(64)];
+
+    @Before
+    public void setUp() {
+        store.add(0.1f, -0.2f);
+        store.add(-0.25f, 0.4f);
+        store.add(0f, 0f);
+    }
+
+    @Test
+    public void keyframeRoundTrip() {
+        final int length = encode(1_000L);
+        assertEquals(TelemetryCodec.HEADER_SIZE + 3 * 6, length);
+        assertTrue(encoder.isKeyframe());
+
+        assertTrue(decoder.decode(buffer, 0, length));
+        assertTrue(decoder.isKeyframe());
+        assertEquals(0, decoder.getSequence());
+        assertEquals(1_000L, decoder.getTimestamp());
+        assertDecoded();
+    }
+
+    @Test
+    public void deltaFrameCarriesMovesAndRemovals() {
+        assertTrue(decoder.decode(buffer, 0, encode(0L)));
+
+        // Small move, large move and a removed ball
+        store.getPosX()[0] += 0.0001f;
+        store.getPosY()[1] -= 0.1f;
+        store.kill(2);
+        store.compact();
+
+        final int length = encode(1L);
+        assertFalse(encoder.isKeyframe());
+        assertEquals(TelemetryCodec.HEADER_SIZE + 4 + 6 + 2, length);
+
+        assertTrue(decoder.decode(buffer, 0, length));
+        assertFalse(decoder.isKeyframe());
+        assertEquals(1, decoder.getSequence());
+        assertDecoded();
+        assertFalse(decoder.isAlive(2));
+    }
+
+    @Test
+    public void unchangedFrameIsSkipped() {
+        encode(0L);
+        assertEquals(0, encode(1L));
+    }
+
+    @Test
+    public void deltaAfterMissingFrameIsDroppedUntilKeyframe() {
+        assertTrue(decoder.decode(buffer, 0, encode(0L)));
+
+        // Lost on the way
+        store.getPosX()[0] += 0.01f;
+        encode(1L);
+
+        store.getPosX()[0] += 0.01f;
+        final int gapLength = encode(2L);
+        assertFalse(decoder.decode(buffer, 0, gapLength));
+
+        // Still out of sync, even though this delta follows the dropped one
+        store.getPosX()[0] += 0.01f;
+        assertFalse(decoder.decode(buffer, 0, encode(3L)));
+
+        encoder.requestKeyframe();
+        final int keyframeLength = encode(4L);
+        assertTrue(encoder.isKeyframe());
+        assertTrue(decoder.decode(buffer, 0, keyframeLength));
+        assertEquals(4, decoder.getSequence());
+        assertDecoded();
+    }
+
+    @Test
+    public void idleFramesCountTowardsKeyframeInterval() {
+        encoder.setKeyframeInterval(4);
+        assertTrue(encode(0L) > 0);
+
+        assertEquals(0, encode(1L));
+        assertEquals(0, encode(2L));
+        assertEquals(0, encode(3L));
+
+        // Nothing moved, but the interval is over
+        assertTrue(encode(4L) > 0);
+        assertTrue(encoder.isKeyframe());
+    }
+
+    @Test
+    public void boundsChangeForcesKeyframe() {
+        encode(0L);
+        store.getPosX()[0] += 0.01f;
+
+        snapshot.copyFrom(store, 1L);
+        encoder.encode(snapshot, X_MAX * 2f, Y_MAX, 1L, buffer, 0);
+        assertTrue(encoder.isKeyframe());
+    }
+
+    @Test
+    public void invalidFrameIsRejected() {
+        final int length = encode(0L);
+
+        assertFalse(decoder.decode(buffer, 0, TelemetryCodec.HEADER_SIZE - 1));
+        assertFalse(decoder.decode(buffer, 0, length - 1));
+
+        final byte[] corrupt = Arrays.copyOf(buffer, length);
+        corrupt[0] = 'X';
+        assertFalse(decoder.decode(corrupt, 0, length));
+    }
+
+    private int encode(final long timestamp) {
+        snapshot.copyFrom(store, timestamp);
+        return encoder.encode(snapshot, X_MAX, Y_MAX, timestamp, buffer, 0);
+    }
+
+    private void assertDecoded() {
+        for (int i = 0; i < store.size(); i++) {
+            final int id = store.getId(i);
+            assertTrue(decoder.isAlive(id));
+            assertEquals(store.getPosX()[i], decoder.getPosX(id), DELTA);
+            assertEquals(store.getPosY()[i], decoder.getPosY(id), DELTA);
+        }
+    }
+}
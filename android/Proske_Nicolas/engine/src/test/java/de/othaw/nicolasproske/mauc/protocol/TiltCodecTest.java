@@ -0,0 +1,68 @@
+package de.othaw.nicolasproske.mauc.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mobile & Ubiquitous Computing - Student research project
+ * <p>
+ * Tests the binary and text format of the {@link TiltCodec}.
+ *
+ * @author Nicolas Proske
+ * @version 20.06.2020
+ */
+public class TiltCodecTest {
+
+    @Test
+    public void binaryRoundTrip() {
+        final byte[] buffer = new byte[TiltCodec.SIZE + 3];
+        assertEquals(TiltCodec.SIZE, TiltCodec.encode(buffer, 3, 123_456, 1_592_640_000_123_456L, 1.25f, -9.81f));
+
+        final TiltCodec codec = new TiltCodec();
+        assertTrue(codec.decode(buffer, 3, TiltCodec.SIZE));
+        assertTrue(codec.isBinary());
+        assertEquals(123_456, codec.getSequence());
+        assertEquals(1_592_640_000_123_456L, codec.getTimestamp());
+        assertEquals(1.25f, codec.getX(), 0f);
+        assertEquals(-9.81f, codec.getY(), 0f);
+    }
+
+    @Test
+    public void textHasNoSequenceOrTimestamp() {
+        final TiltCodec codec = new TiltCodec();
+        assertTrue(codec.decode(text(" -1.5, 2.25e1")));
+
+        assertFalse(codec.isBinary());
+        assertEquals(TiltCodec.NO_SEQUENCE, codec.getSequence());
+        assertEquals(TiltCodec.NO_TIMESTAMP, codec.getTimestamp());
+        assertEquals(-1.5f, codec.getX(), 0f);
+        assertEquals(22.5f, codec.getY(), 0f);
+    }
+
+    @Test
+    public void invalidMessageKeepsPreviousValues() {
+        final TiltCodec codec = new TiltCodec();
+        assertTrue(codec.decode(text("1,2")));
+
+        final byte[] binary = new byte[TiltCodec.SIZE];
+        TiltCodec.encode(binary, 0, 1, 0L, Float.NaN, 0f);
+
+        assertFalse(codec.decode(binary));
+        assertFalse(codec.decode(binary, 0, TiltCodec.SIZE - 1));
+        assertFalse(codec.decode(new byte[0]));
+        assertFalse(codec.decode(text("1;2")));
+        assertFalse(codec.decode(text("x,y")));
+
+        assertEquals(1f, codec.getX(), 0f);
+        assertEquals(2f, codec.getY(), 0f);
+    }
+
+    private static byte[] text(final String message) {
+        return message.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,3 +1,6 @@
+import struct
+import time
+
 import paho.mqtt.client as mqtt
 from tkinter import *
 
@@ -35,25 +38,64 @@ message.pack(side=BOTTOM)  # Placing the label at the bottom
 broker = '127.0.0.1'
 sub_topic = 'StA/message'  # Receive messages on this topic
 pub_topic = 'StA/data'  # Send messages to this topic
+diag_topic = 'StA/diagnostics'  # Latency echoes of the app, if enabled in its settings
+
+# Send the binary tilt format instead of the text "x,y"
+use_binary = True
+sequence = 0
+
+# Send time of the recent messages by sequence number, to measure the round trip
+sent_times = {}
 
 
 # Connecting to mqtt
 def on_connect(client, userdata, flags, rc):
     print('Connected with result code ' + str(rc))
     client.subscribe(sub_topic)
+    client.subscribe(diag_topic)
 
 
 # Receiving a mqtt message
 def on_message(client, userdata, msg):
     global message
+    if msg.topic == diag_topic:
+        on_diagnostics(str(msg.payload, 'utf-8'))
+        return
     message.config(text="Total " + str(msg.payload, 'utf-8'))
     print('Received from ' + sub_topic + ': ' + str(msg.payload, 'utf-8'))
 
 
+# Echo of a message drawn by the app: sequence, timestamp, network, receive to consume
+# and consume to present in microseconds. The percentiles are only printed.
+def on_diagnostics(payload):
+    fields = payload.split(',')
+    if fields[0] != 'Latency':
+        print(payload)
+        return
+
+    sent = sent_times.get(int(fields[1]) & 0xFFFFFFFF)
+    if sent is None:
+        return
+    round_trip = (time.perf_counter() - sent) * 1000
+    in_app = (int(fields[4]) + int(fields[5])) / 1000
+    print('Latency of %s: round trip %.1f ms, in app %.1f ms (consume %.1f ms, present %.1f ms)'
+          % (fields[1], round_trip, in_app, int(fields[4]) / 1000, int(fields[5]) / 1000))
+
+
 # Sending a message to specific topic
 def on_publish(client, topic, msg):
     client.publish(pub_topic, msg)
-    print('Published to ' + topic + ': ' + msg)
+    print('Published to ' + topic + ': ' + str(msg))
+
+
+# Encode the tilt as binary message: magic 'T', version 1, sequence,
+# timestamp in microseconds since the epoch, x and y (see TiltCodec)
+def encode_tilt(x, y):
+    global sequence
+    sequence = (sequence + 1) & 0xFFFFFFFF
+    sent_times[sequence] = time.perf_counter()
+    sent_times.pop(sequence - 1000, None)
+    return struct.pack('>cBIqff', b'T', 1, sequence, int(time.time() * 1000000), x, y)
 
 
 # Finally connecting to broker
@@ -92,7 +134,10 @@ def paint(event):
     y_new = (y - center) * mult
     
     # Publish values to broker
-    on_publish(client, pub_topic, str(x_new) + ',' + str(y_new))
+    if use_binary:
+        on_publish(client, pub_topic, encode_tilt(x_new, y_new))
+    else:
+        on_publish(client, pub_topic, str(x_new) + ',' + str(y_new))
 
 
 w.bind('<Motion>', paint)